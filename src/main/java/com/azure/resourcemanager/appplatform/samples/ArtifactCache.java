@@ -0,0 +1,437 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local content-addressed cache for downloaded artifacts.
+ * <p>
+ * Artifacts are stored once under their SHA-256 and indexed by URL together with the ETag and Last-Modified
+ * validators of the response. A cached copy is verified against its digest before it is served and revalidated
+ * with a conditional request; the least recently used artifacts are evicted once the cache exceeds its size bound.
+ * Large artifacts served with range support are fetched with a {@link SegmentedDownloader}. Archives fetched with
+ * {@link #fetchIndex(URL)} also keep a seekable copy and its {@link TarGzIndex} next to the blob, evicted with it.
+ * The cache folder may be shared by several processes on the same machine. Fetches of the same URL run one after
+ * the other, so a partial download is only ever written, hashed, moved or deleted by one of them.
+ */
+public final class ArtifactCache {
+
+    private static final String PROPERTY_CACHE_DIR = "artifact.cache.dir";
+    private static final String PROPERTY_CACHE_MAX_BYTES = "artifact.cache.maxBytes";
+    private static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+    private static final long SEGMENTED_DOWNLOAD_THRESHOLD = 16L * 1024 * 1024;
+    private static final Map<String, Object> FETCH_LOCKS = new ConcurrentHashMap<>();
+    private static final String SEEKABLE_SUFFIX = ".seekable";
+
+    private static final String KEY_URL = "url";
+    private static final String KEY_SHA256 = "sha256";
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_LAST_ACCESS = "lastAccess";
+    private static final String KEY_VERIFIED = "verified";
+
+    private final File blobFolder;
+    private final File indexFolder;
+    private final File lockFile;
+    private final long maxBytes;
+    private final long segmentedDownloadThreshold;
+    private final SegmentedDownloader downloader;
+
+    /**
+     * Creates a cache in the given folder.
+     *
+     * @param folder the cache folder
+     * @param maxBytes the maximum total size of cached artifacts
+     */
+    public ArtifactCache(File folder, long maxBytes) {
+        this(folder, maxBytes, SEGMENTED_DOWNLOAD_THRESHOLD, new SegmentedDownloader());
+    }
+
+    ArtifactCache(File folder, long maxBytes, long segmentedDownloadThreshold, SegmentedDownloader downloader) {
+        this.segmentedDownloadThreshold = segmentedDownloadThreshold;
+        this.downloader = downloader;
+        this.blobFolder = new File(folder, "blobs");
+        this.indexFolder = new File(folder, "index");
+        this.lockFile = new File(folder, "cache.lock");
+        this.maxBytes = maxBytes;
+        if (!(blobFolder.isDirectory() || blobFolder.mkdirs()) || !(indexFolder.isDirectory() || indexFolder.mkdirs())) {
+            throw new IllegalStateException("Cannot create directory: " + folder.getAbsolutePath());
+        }
+    }
+
+    /**
+     * @return the cache configured by the {@code artifact.cache.dir} and {@code artifact.cache.maxBytes} system
+     * properties, defaulting to 1 GB under the user home folder
+     */
+    public static ArtifactCache getDefault() {
+        String folder = System.getProperty(PROPERTY_CACHE_DIR,
+            System.getProperty("user.home") + File.separator + ".azure-samples" + File.separator + "artifacts");
+        return new ArtifactCache(new File(folder), Long.getLong(PROPERTY_CACHE_MAX_BYTES, DEFAULT_MAX_BYTES));
+    }
+
+    /**
+     * Gets a verified local copy of the artifact, downloading or revalidating it as needed.
+     *
+     * @param url the artifact URL
+     * @return the cached file; it must be treated as read-only
+     * @throws IOException if the artifact can neither be downloaded nor served from the cache
+     */
+    public File fetch(URL url) throws IOException {
+        File indexFile = indexFile(url);
+        return withFetchLock(indexFile, () -> fetchLocked(url, indexFile));
+    }
+
+    /**
+     * Gets a verified local copy of a tar.gz artifact with its random-access index.
+     * <p>
+     * The first fetch of an archive recompresses it as a sequence of gzip members of
+     * {@link TarGzIndex#DEFAULT_CHECKPOINT_INTERVAL} bytes, so that its index gets a checkpoint at each of them; later
+     * fetches load the seekable copy and its index as they are.
+     *
+     * @param url the artifact URL
+     * @return the index of the seekable copy of the archive
+     * @throws IOException if the artifact can neither be downloaded nor served from the cache, or cannot be indexed
+     */
+    public TarGzIndex fetchIndex(URL url) throws IOException {
+        File indexFile = indexFile(url);
+        return withFetchLock(indexFile, () -> {
+            File blob = fetchLocked(url, indexFile);
+            File seekable = new File(blob.getPath() + SEEKABLE_SUFFIX);
+            if (!seekable.isFile()) {
+                File temp = File.createTempFile("seekable", ".tmp", blobFolder);
+                try {
+                    long start = System.nanoTime();
+                    TarGzIndex.recompress(blob, temp, TarGzIndex.DEFAULT_CHECKPOINT_INTERVAL);
+                    Files.move(temp.toPath(), seekable.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    System.out.printf("Recompressed %s for random access (%d of %d bytes) in %d ms%n",
+                        url, seekable.length(), blob.length(), (System.nanoTime() - start) / 1_000_000);
+                } finally {
+                    Files.deleteIfExists(temp.toPath());
+                }
+            }
+            return TarGzIndex.load(seekable);
+        });
+    }
+
+    private File indexFile(URL url) {
+        return new File(indexFolder, sha256(url.toString().getBytes(StandardCharsets.UTF_8)) + ".properties");
+    }
+
+    /**
+     * Runs the action under the lock of the URL's index entry. It is held from the conditional request until the
+     * download is stored, so a second fetch of the URL waits and then revalidates the stored copy instead of racing
+     * on the same partial file.
+     */
+    private <T> T withFetchLock(File indexFile, IOCallable<T> action) throws IOException {
+        File fetchLockFile = new File(blobFolder, indexFile.getName().replace(".properties", ".fetch.lock"));
+        Object processLock = FETCH_LOCKS.computeIfAbsent(fetchLockFile.getAbsolutePath(), key -> new Object());
+        synchronized (processLock) {
+            try (RandomAccessFile file = new RandomAccessFile(fetchLockFile, "rw");
+                 FileChannel channel = file.getChannel()) {
+                FileLock lock = channel.lock();
+                try {
+                    return action.call();
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    private File fetchLocked(URL url, File indexFile) throws IOException {
+        Properties cached = withLock(() -> indexFile.exists() ? readIndex(indexFile) : null);
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            if (cached != null) {
+                if (cached.getProperty(KEY_ETAG) != null) {
+                    connection.setRequestProperty("If-None-Match", cached.getProperty(KEY_ETAG));
+                }
+                if (cached.getProperty(KEY_LAST_MODIFIED) != null) {
+                    connection.setRequestProperty("If-Modified-Since", cached.getProperty(KEY_LAST_MODIFIED));
+                }
+            }
+            int code;
+            try {
+                connection.connect();
+                code = connection.getResponseCode();
+            } catch (IOException e) {
+                File blob = cached == null ? null : withLock(() -> verifyAndTouch(indexFile));
+                if (blob != null) {
+                    System.out.printf("Cannot revalidate %s (%s), using cached copy%n", url, e.getMessage());
+                    return blob;
+                }
+                throw e;
+            }
+
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                File blob = withLock(() -> verifyAndTouch(indexFile));
+                if (blob != null) {
+                    System.out.printf("Artifact %s not modified, using cached copy%n", url);
+                    return blob;
+                }
+                // evicted or discarded since the index was read; its index entry is gone, so this is a plain GET
+                connection.disconnect();
+                return fetchLocked(url, indexFile);
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException(String.format("Unexpected status %d downloading %s", code, url));
+            }
+
+            String etag = connection.getHeaderField("ETag");
+            String lastModified = connection.getHeaderField("Last-Modified");
+            long contentLength = connection.getContentLengthLong();
+            boolean segmented = "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"))
+                && contentLength >= segmentedDownloadThreshold;
+
+            // a segmented download keeps a stable partial file so that an interrupted download can resume
+            File temp = segmented
+                ? new File(blobFolder, indexFile.getName().replace(".properties", ".partial"))
+                : File.createTempFile("download", ".tmp", blobFolder);
+            boolean keepPartial = false;
+            try {
+                String sha256;
+                long start = System.nanoTime();
+                if (segmented) {
+                    try {
+                        downloader.download(connection, temp);
+                    } catch (IOException e) {
+                        keepPartial = true;
+                        throw e;
+                    }
+                    try (InputStream inputStream = new FileInputStream(temp)) {
+                        sha256 = sha256(inputStream);
+                    }
+                } else {
+                    MessageDigest digest = newSha256();
+                    try (InputStream inputStream = new DigestInputStream(connection.getInputStream(), digest);
+                         OutputStream outputStream = new FileOutputStream(temp)) {
+                        byte[] buffer = new byte[64 * 1024];
+                        int size;
+                        while ((size = inputStream.read(buffer)) > 0) {
+                            outputStream.write(buffer, 0, size);
+                        }
+                    }
+                    sha256 = DatatypeConverter.printHexBinary(digest.digest()).toLowerCase();
+                }
+                if (contentLength >= 0 && contentLength != temp.length()) {
+                    throw new IOException(String.format("Truncated download of %s: %d of %d bytes", url, temp.length(), contentLength));
+                }
+                System.out.printf("Downloaded %s (%d bytes, sha256 %s) in %d ms%n",
+                    url, temp.length(), sha256, (System.nanoTime() - start) / 1_000_000);
+
+                Properties entry = new Properties();
+                entry.setProperty(KEY_URL, url.toString());
+                entry.setProperty(KEY_SHA256, sha256);
+                entry.setProperty(KEY_SIZE, Long.toString(temp.length()));
+                if (etag != null) {
+                    entry.setProperty(KEY_ETAG, etag);
+                }
+                if (lastModified != null) {
+                    entry.setProperty(KEY_LAST_MODIFIED, lastModified);
+                }
+                return store(indexFile, entry, temp);
+            } finally {
+                if (!keepPartial) {
+                    Files.deleteIfExists(temp.toPath());
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private File store(File indexFile, Properties entry, File temp) throws IOException {
+        return withLock(() -> {
+            File blob = new File(blobFolder, entry.getProperty(KEY_SHA256));
+            if (!blob.exists()) {
+                Files.move(temp.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                entry.setProperty(KEY_VERIFIED, Long.toString(blob.lastModified()));
+            }
+            entry.setProperty(KEY_LAST_ACCESS, Long.toString(System.currentTimeMillis()));
+            writeIndex(indexFile, entry);
+            evict(blob);
+            return blob;
+        });
+    }
+
+    /**
+     * Verifies the blob of the index entry and marks it as used, in one step so that no other process can evict
+     * the blob in between. Must be called under the lock.
+     *
+     * @return the verified blob, or null if the entry or its blob is missing or corrupt
+     */
+    private File verifyAndTouch(File indexFile) throws IOException {
+        Properties entry = readVerified(indexFile);
+        if (entry == null) {
+            return null;
+        }
+        entry.setProperty(KEY_LAST_ACCESS, Long.toString(System.currentTimeMillis()));
+        writeIndex(indexFile, entry);
+        return new File(blobFolder, entry.getProperty(KEY_SHA256));
+    }
+
+    /**
+     * Reads the index entry and verifies the blob it points to, dropping both if the blob is missing or corrupt.
+     * A blob is only hashed again if it changed since its last verification.
+     */
+    private Properties readVerified(File indexFile) throws IOException {
+        if (!indexFile.exists()) {
+            return null;
+        }
+        Properties entry = readIndex(indexFile);
+        File blob = new File(blobFolder, entry.getProperty(KEY_SHA256, ""));
+        if (blob.isFile() && Long.toString(blob.length()).equals(entry.getProperty(KEY_SIZE))) {
+            String modified = Long.toString(blob.lastModified());
+            if (modified.equals(entry.getProperty(KEY_VERIFIED))) {
+                return entry;
+            }
+            try (InputStream inputStream = new FileInputStream(blob)) {
+                if (sha256(inputStream).equals(entry.getProperty(KEY_SHA256))) {
+                    entry.setProperty(KEY_VERIFIED, modified);
+                    return entry;
+                }
+            }
+        }
+        System.out.printf("Cached copy of %s failed verification, discarding it%n", entry.getProperty(KEY_URL));
+        Files.deleteIfExists(indexFile.toPath());
+        deleteBlob(blob);
+        return null;
+    }
+
+    /**
+     * Evicts the least recently used blobs until the cache fits its size bound. The given blob is never evicted.
+     */
+    private void evict(File keep) throws IOException {
+        Map<String, Long> lastAccess = new HashMap<>();
+        Map<String, List<File>> indexFiles = new HashMap<>();
+        File[] files = indexFolder.listFiles();
+        for (File indexFile : files == null ? new File[0] : files) {
+            Properties entry = readIndex(indexFile);
+            String sha256 = entry.getProperty(KEY_SHA256);
+            lastAccess.merge(sha256, Long.parseLong(entry.getProperty(KEY_LAST_ACCESS, "0")), Math::max);
+            indexFiles.computeIfAbsent(sha256, key -> new ArrayList<>()).add(indexFile);
+        }
+
+        List<File> blobs = new ArrayList<>();
+        long total = 0;
+        File[] blobFiles = blobFolder.listFiles((dir, name) -> !name.contains("."));
+        for (File blob : blobFiles == null ? new File[0] : blobFiles) {
+            blobs.add(blob);
+            total += blobBytes(blob);
+        }
+        blobs.sort(Comparator.comparingLong(blob -> lastAccess.getOrDefault(blob.getName(), 0L)));
+        for (File blob : blobs) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (blob.equals(keep)) {
+                continue;
+            }
+            total -= blobBytes(blob);
+            System.out.printf("Evicting cached artifact %s%n", blob.getName());
+            for (File indexFile : indexFiles.getOrDefault(blob.getName(), new ArrayList<>())) {
+                Files.deleteIfExists(indexFile.toPath());
+            }
+            deleteBlob(blob);
+        }
+    }
+
+    /**
+     * @return the size of the blob together with its seekable copy and index, if any
+     */
+    private static long blobBytes(File blob) {
+        return blob.length() + new File(blob.getPath() + SEEKABLE_SUFFIX).length()
+            + new File(blob.getPath() + SEEKABLE_SUFFIX + ".idx").length();
+    }
+
+    private static void deleteBlob(File blob) throws IOException {
+        Files.deleteIfExists(new File(blob.getPath() + SEEKABLE_SUFFIX + ".idx").toPath());
+        Files.deleteIfExists(new File(blob.getPath() + SEEKABLE_SUFFIX).toPath());
+        Files.deleteIfExists(blob.toPath());
+    }
+
+    private static Properties readIndex(File indexFile) throws IOException {
+        Properties entry = new Properties();
+        try (InputStream inputStream = new FileInputStream(indexFile)) {
+            entry.load(inputStream);
+        }
+        return entry;
+    }
+
+    private static void writeIndex(File indexFile, Properties entry) throws IOException {
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (OutputStream outputStream = new FileOutputStream(temp)) {
+            entry.store(outputStream, null);
+        }
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private <T> T withLock(IOCallable<T> action) throws IOException {
+        synchronized (ArtifactCache.class) {
+            try (RandomAccessFile file = new RandomAccessFile(lockFile, "rw");
+                 FileChannel channel = file.getChannel()) {
+                FileLock lock = channel.lock();
+                try {
+                    return action.call();
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    private static String sha256(byte[] data) {
+        return DatatypeConverter.printHexBinary(newSha256().digest(data)).toLowerCase();
+    }
+
+    private static String sha256(InputStream inputStream) throws IOException {
+        MessageDigest digest = newSha256();
+        byte[] buffer = new byte[64 * 1024];
+        int size;
+        while ((size = inputStream.read(buffer)) > 0) {
+            digest.update(buffer, 0, size);
+        }
+        return DatatypeConverter.printHexBinary(digest.digest()).toLowerCase();
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface IOCallable<T> {
+        T call() throws IOException;
+    }
+}
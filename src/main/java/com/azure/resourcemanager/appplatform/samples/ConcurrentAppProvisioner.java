@@ -0,0 +1,104 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import com.azure.resourcemanager.appplatform.models.SpringApp;
+import com.azure.resourcemanager.resources.fluentcore.model.Creatable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates a set of independent spring cloud apps, or app deployments, concurrently.
+ * <p>
+ * All definitions are submitted at once through {@code createAsync()}, the caller waits for every one of them
+ * to finish, and timing and failures are reported together afterwards.
+ */
+public final class ConcurrentAppProvisioner {
+
+    private ConcurrentAppProvisioner() {
+    }
+
+    /**
+     * Creates all app definitions concurrently.
+     *
+     * @param definitions app definitions keyed by app name, in the order they should be reported
+     * @return the created apps keyed by app name
+     * @throws IllegalStateException if any of the apps failed to create, with each failure attached as suppressed
+     */
+    public static Map<String, SpringApp> createAll(Map<String, ? extends Creatable<SpringApp>> definitions) {
+        return createAll("spring cloud app", definitions);
+    }
+
+    /**
+     * Creates all definitions concurrently.
+     *
+     * @param kind description of the created resources, used in progress output
+     * @param definitions definitions keyed by name, in the order they should be reported
+     * @param <T> type of the created resources
+     * @return the created resources keyed by name
+     * @throws IllegalStateException if any of the resources failed to create, with each failure attached as suppressed
+     */
+    public static <T> Map<String, T> createAll(String kind, Map<String, ? extends Creatable<T>> definitions) {
+        System.out.printf("Creating %ss %s concurrently ...%n", kind, definitions.keySet());
+        long start = System.nanoTime();
+
+        List<Mono<Result<T>>> creations = new ArrayList<>();
+        for (Map.Entry<String, ? extends Creatable<T>> entry : definitions.entrySet()) {
+            String name = entry.getKey();
+            creations.add(entry.getValue().createAsync()
+                .elapsed()
+                .map(timed -> new Result<T>(name, timed.getT2(), null, Duration.ofMillis(timed.getT1())))
+                .onErrorResume(e -> Mono.just(new Result<T>(name, null, e, Duration.ofNanos(System.nanoTime() - start)))));
+        }
+        List<Result<T>> results = Flux.merge(creations).collectList().block();
+
+        Map<String, Result<T>> byName = new LinkedHashMap<>();
+        for (Result<T> result : results) {
+            byName.put(result.name, result);
+        }
+        Map<String, T> created = new LinkedHashMap<>();
+        IllegalStateException failure = null;
+        for (String name : definitions.keySet()) {
+            Result<T> result = byName.get(name);
+            if (result.error == null) {
+                System.out.printf("Created %s %s in %d s%n", kind, name, result.duration.getSeconds());
+                created.put(name, result.value);
+            } else {
+                System.out.printf("Failed to create %s %s after %d s: %s%n",
+                    kind, name, result.duration.getSeconds(), result.error.getMessage());
+                if (failure == null) {
+                    failure = new IllegalStateException("Failed to create " + kind + "s");
+                }
+                failure.addSuppressed(result.error);
+            }
+        }
+        System.out.printf("Finished creating %d of %d %ss in %d s%n",
+            created.size(), definitions.size(), kind, Duration.ofNanos(System.nanoTime() - start).getSeconds());
+
+        if (failure != null) {
+            throw failure;
+        }
+        return created;
+    }
+
+    private static final class Result<T> {
+        private final String name;
+        private final T value;
+        private final Throwable error;
+        private final Duration duration;
+
+        private Result(String name, T value, Throwable error, Duration duration) {
+            this.name = name;
+            this.value = value;
+            this.error = error;
+            this.duration = duration;
+        }
+    }
+}
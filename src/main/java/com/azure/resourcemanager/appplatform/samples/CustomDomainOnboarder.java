@@ -0,0 +1,262 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import com.azure.resourcemanager.appplatform.fluent.models.CustomDomainResourceInner;
+import com.azure.resourcemanager.appplatform.models.CustomDomainProperties;
+import com.azure.resourcemanager.appplatform.models.SpringApp;
+import com.azure.resourcemanager.appplatform.models.SpringService;
+import com.azure.resourcemanager.dns.models.DnsZone;
+import com.azure.resourcemanager.keyvault.models.Vault;
+import com.azure.resourcemanager.samples.CertificateGenerator;
+import com.azure.security.keyvault.certificates.CertificateAsyncClient;
+import com.azure.security.keyvault.certificates.CertificateClientBuilder;
+import com.azure.security.keyvault.certificates.models.ImportCertificateOptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Onboards many custom domains to one Spring Cloud app.
+ * <p>
+ * All CNAME records are written in a single DNS zone update, which completes once every name server of the zone
+ * serves them. A self-signed certificate per hostname is generated and imported into Key Vault concurrently, all
+ * imported certificates are registered with the service in a single service update, and the domains are then bound
+ * to the app with bounded parallelism. A failure only fails the domains it affects; every domain gets an outcome.
+ */
+public final class CustomDomainOnboarder {
+
+    private final SpringService service;
+    private final SpringApp app;
+    private final DnsZone dnsZone;
+    private final Vault vault;
+    private final OperationLimiter importLimiter;
+    private final OperationLimiter bindLimiter;
+
+    /**
+     * Creates an onboarder.
+     *
+     * @param service the spring cloud service of the app
+     * @param app the app to bind the domains to
+     * @param dnsZone the DNS zone that contains every hostname
+     * @param vault the key vault to import the certificates into, accessible by the spring cloud service
+     * @param importParallelism the maximum number of certificate imports in flight
+     * @param bindParallelism the maximum number of domain bindings in flight
+     */
+    public CustomDomainOnboarder(SpringService service, SpringApp app, DnsZone dnsZone, Vault vault,
+                                 int importParallelism, int bindParallelism) {
+        this.service = service;
+        this.app = app;
+        this.dnsZone = dnsZone;
+        this.vault = vault;
+        this.importLimiter = new OperationLimiter("certificate import", importParallelism);
+        this.bindLimiter = new OperationLimiter("custom domain", bindParallelism);
+    }
+
+    /**
+     * Onboards the hostnames and reports throughput and per-domain failures.
+     *
+     * @param hostnames hostnames in the DNS zone, for example tenant1.contoso.com
+     * @return the outcome of every hostname, in the given order
+     */
+    public List<DomainOutcome> onboard(List<String> hostnames) {
+        long start = System.nanoTime();
+        Map<String, DomainOutcome> outcomes = new LinkedHashMap<>();
+        Map<String, String> recordNames = new LinkedHashMap<>();
+        for (String hostname : hostnames) {
+            String suffix = "." + dnsZone.name();
+            if (hostname.endsWith(suffix) && hostname.length() > suffix.length()) {
+                recordNames.put(hostname, hostname.substring(0, hostname.length() - suffix.length()));
+            } else {
+                outcomes.put(hostname, new DomainOutcome(hostname, "dns",
+                    new IllegalArgumentException(hostname + " is not in DNS zone " + dnsZone.name()), Duration.ZERO));
+            }
+        }
+
+        List<DomainOutcome> results = dns(recordNames)
+            .thenMany(certificates(new ArrayList<>(recordNames.keySet())))
+            .collectList()
+            .flatMap(imported -> registerCertificates(imported, start))
+            .flatMapMany(Flux::fromIterable)
+            .flatMap(item -> item.error != null
+                ? Mono.just(new DomainOutcome(item.hostname, item.stage, item.error, elapsed(start)))
+                : bind(item, start))
+            .onErrorResume(e -> Flux.fromIterable(recordNames.keySet())
+                .map(hostname -> new DomainOutcome(hostname, "dns", e, elapsed(start))))
+            .collectList()
+            .block();
+
+        for (DomainOutcome outcome : results) {
+            outcomes.put(outcome.hostname(), outcome);
+        }
+        return report(hostnames, outcomes, elapsed(start));
+    }
+
+    private Mono<DnsZone> dns(Map<String, String> recordNames) {
+        if (recordNames.isEmpty()) {
+            return Mono.empty();
+        }
+        return Mono.defer(() -> {
+            String target = app.fqdn();
+            System.out.printf("Updating dns zone %s with %d CNAME records to %s%n", dnsZone.name(), recordNames.size(), target);
+            DnsZone.Update update = dnsZone.update();
+            Map<String, String> records = new LinkedHashMap<>();
+            for (Map.Entry<String, String> recordName : recordNames.entrySet()) {
+                update = update.withCNameRecordSet(recordName.getValue(), target);
+                records.put(recordName.getKey(), target);
+            }
+            return update.applyAsync()
+                .flatMap(zone -> Mono.fromCallable(() -> new DnsPropagationWaiter().await(zone.nameServers(), records))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .thenReturn(zone));
+        });
+    }
+
+    private Flux<PendingDomain> certificates(List<String> hostnames) {
+        CertificateAsyncClient certificateClient = new CertificateClientBuilder()
+            .vaultUrl(vault.vaultUri())
+            .pipeline(vault.manager().httpPipeline())
+            .buildAsyncClient();
+        CertificateGenerator generator = new CertificateGenerator();
+
+        return Flux.fromIterable(hostnames)
+            .flatMap(hostname -> {
+                String certName = certificateName(hostname);
+                return Mono.fromCallable(() -> generator.generate(hostname, UUID.randomUUID().toString(), hostname, hostname))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .flatMap(certificate -> importLimiter.limit(certificateClient.importCertificate(
+                        new ImportCertificateOptions(certName, certificate.pfx())
+                            .setPassword(certificate.password())
+                            .setEnabled(true)))
+                        .thenReturn(new PendingDomain(hostname, certName, certificate.sha1Thumbprint(), null, null)))
+                    .onErrorResume(e -> Mono.just(new PendingDomain(hostname, certName, null, "certificate import", e)));
+            });
+    }
+
+    private Mono<List<PendingDomain>> registerCertificates(List<PendingDomain> imported, long start) {
+        SpringService.Update update = null;
+        for (PendingDomain item : imported) {
+            if (item.error == null) {
+                update = (update == null ? service.update() : update)
+                    .withCertificate(item.certName, vault.vaultUri(), item.certName);
+            }
+        }
+        if (update == null) {
+            return Mono.just(imported);
+        }
+        System.out.printf("Imported certificates in %d s, registering them with spring cloud service %s%n",
+            elapsed(start).getSeconds(), service.name());
+        return update.applyAsync()
+            .thenReturn(imported)
+            .onErrorResume(e -> {
+                List<PendingDomain> failed = new ArrayList<>();
+                for (PendingDomain item : imported) {
+                    failed.add(item.error != null ? item
+                        : new PendingDomain(item.hostname, item.certName, null, "service certificate", e));
+                }
+                return Mono.just(failed);
+            });
+    }
+
+    private Mono<DomainOutcome> bind(PendingDomain item, long start) {
+        CustomDomainResourceInner domain = new CustomDomainResourceInner()
+            .withProperties(new CustomDomainProperties()
+                .withThumbprint(item.thumbprint)
+                .withCertName(item.certName));
+        return bindLimiter.limit(service.manager().serviceClient().getCustomDomains()
+                .createOrUpdateAsync(service.resourceGroupName(), service.name(), app.name(), item.hostname, domain))
+            .thenReturn(new DomainOutcome(item.hostname, null, null, elapsed(start)))
+            .onErrorResume(e -> Mono.just(new DomainOutcome(item.hostname, "binding", e, elapsed(start))));
+    }
+
+    private static List<DomainOutcome> report(List<String> hostnames, Map<String, DomainOutcome> outcomes,
+                                              Duration duration) {
+        List<DomainOutcome> ordered = new ArrayList<>();
+        int onboarded = 0;
+        for (String hostname : hostnames) {
+            DomainOutcome outcome = outcomes.get(hostname);
+            ordered.add(outcome);
+            if (outcome.error() == null) {
+                onboarded++;
+            } else {
+                System.out.printf("Failed to onboard %s at %s: %s%n",
+                    hostname, outcome.failedStage(), outcome.error().getMessage());
+            }
+        }
+        double minutes = Math.max(duration.toMillis(), 1) / 60000.0;
+        System.out.printf("Onboarded %d of %d custom domains in %d s (%.1f domains/min)%n",
+            onboarded, hostnames.size(), duration.getSeconds(), onboarded / minutes);
+        return ordered;
+    }
+
+    private static String certificateName(String hostname) {
+        // key vault object names only allow alphanumerics and dashes
+        return hostname.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9-]", "-");
+    }
+
+    private static Duration elapsed(long start) {
+        return Duration.ofNanos(System.nanoTime() - start);
+    }
+
+    private static final class PendingDomain {
+        private final String hostname;
+        private final String certName;
+        private final String thumbprint;
+        private final String stage;
+        private final Throwable error;
+
+        private PendingDomain(String hostname, String certName, String thumbprint, String stage, Throwable error) {
+            this.hostname = hostname;
+            this.certName = certName;
+            this.thumbprint = thumbprint;
+            this.stage = stage;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Result of onboarding one hostname.
+     */
+    public static final class DomainOutcome {
+        private final String hostname;
+        private final String failedStage;
+        private final Throwable error;
+        private final Duration duration;
+
+        private DomainOutcome(String hostname, String failedStage, Throwable error, Duration duration) {
+            this.hostname = hostname;
+            this.failedStage = failedStage;
+            this.error = error;
+            this.duration = duration;
+        }
+
+        /** @return the hostname */
+        public String hostname() {
+            return hostname;
+        }
+
+        /** @return the stage that failed: dns, certificate import, service certificate or binding; null on success */
+        public String failedStage() {
+            return failedStage;
+        }
+
+        /** @return the failure, or null if the domain was onboarded */
+        public Throwable error() {
+            return error;
+        }
+
+        /** @return the time from the start of the batch until this domain finished */
+        public Duration duration() {
+            return duration;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Waits until CNAME records are served by every authoritative name server of a zone.
+ * <p>
+ * Each name server is queried directly over UDP by a minimal built-in resolver, so neither the local resolver nor
+ * any recursive resolver cache is involved, and the wait ends as soon as the last server serves the records.
+ * The servers are polled in parallel, each one until it serves every record or the timeout expires.
+ */
+public final class DnsPropagationWaiter {
+
+    private static final int TYPE_CNAME = 5;
+    private static final int CLASS_IN = 1;
+    private static final int RCODE_MASK = 0x000F;
+    private static final int FLAG_RESPONSE = 0x8000;
+
+    private final Duration timeout;
+    private final Duration interval;
+    private final Duration queryTimeout;
+    private final int port;
+
+    /**
+     * Creates a waiter that gives up after 10 minutes, polling each name server every 2 seconds.
+     */
+    public DnsPropagationWaiter() {
+        this(Duration.ofMinutes(10), Duration.ofSeconds(2), Duration.ofSeconds(2), 53);
+    }
+
+    /**
+     * Creates a waiter.
+     *
+     * @param timeout how long to wait for propagation in total
+     * @param interval the pause between two polls of the same name server
+     * @param queryTimeout how long to wait for the response to a single query
+     * @param port the DNS port of the name servers, 53 except for local stub servers
+     */
+    public DnsPropagationWaiter(Duration timeout, Duration interval, Duration queryTimeout, int port) {
+        this.timeout = timeout;
+        this.interval = interval;
+        this.queryTimeout = queryTimeout;
+        this.port = port;
+    }
+
+    /**
+     * Waits until a CNAME record is served by all name servers.
+     *
+     * @param nameServers host names of the authoritative name servers, as returned by {@code DnsZone.nameServers()}
+     * @param name the fully qualified name of the record, for example ssl.contoso.com
+     * @param canonicalName the expected target of the record
+     * @return true once every name server serves the record, false if the timeout expired first
+     */
+    public boolean await(List<String> nameServers, String name, String canonicalName) {
+        return await(nameServers, Collections.singletonMap(name, canonicalName));
+    }
+
+    /**
+     * Waits until CNAME records are served by all name servers.
+     *
+     * @param nameServers host names of the authoritative name servers, as returned by {@code DnsZone.nameServers()}
+     * @param records expected canonical names keyed by the fully qualified record name
+     * @return true once every name server serves every record, false if the timeout expired first
+     */
+    public boolean await(List<String> nameServers, Map<String, String> records) {
+        List<InetSocketAddress> servers = new ArrayList<>();
+        for (String nameServer : nameServers) {
+            servers.add(new InetSocketAddress(normalize(nameServer), port));
+        }
+        return awaitServers(servers, records);
+    }
+
+    /**
+     * Waits until CNAME records are served by all name servers, given by address.
+     *
+     * @param servers addresses of the name servers
+     * @param records expected canonical names keyed by the fully qualified record name
+     * @return true once every name server serves every record, false if the timeout expired first
+     */
+    public boolean awaitServers(List<InetSocketAddress> servers, Map<String, String> records) {
+        System.out.printf("Waiting for %d CNAME records to propagate to %d name servers ...%n", records.size(), servers.size());
+        long start = System.nanoTime();
+        long deadline = start + timeout.toNanos();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, servers.size()), runnable -> {
+            Thread thread = new Thread(runnable, "dns-propagation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<CompletableFuture<Boolean>> polls = new ArrayList<>();
+            for (InetSocketAddress server : servers) {
+                polls.add(CompletableFuture.supplyAsync(() -> poll(server, records, deadline), executor));
+            }
+            boolean propagated = true;
+            for (CompletableFuture<Boolean> poll : polls) {
+                propagated &= poll.join();
+            }
+            System.out.printf("%s after %d s%n", propagated ? "DNS records propagated" : "Gave up waiting for DNS propagation",
+                Duration.ofNanos(System.nanoTime() - start).getSeconds());
+            return propagated;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private boolean poll(InetSocketAddress server, Map<String, String> records, long deadline) {
+        Map<String, String> pending = new LinkedHashMap<>(records);
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout((int) queryTimeout.toMillis());
+            while (true) {
+                pending.entrySet().removeIf(record -> {
+                    String served = queryCname(socket, server, record.getKey());
+                    return served != null && normalize(served).equalsIgnoreCase(normalize(record.getValue()));
+                });
+                if (pending.isEmpty()) {
+                    return true;
+                }
+                if (System.nanoTime() + interval.toNanos() > deadline) {
+                    System.out.printf("Name server %s still does not serve %s%n", server.getHostString(), pending.keySet());
+                    return false;
+                }
+                Thread.sleep(interval.toMillis());
+            }
+        } catch (IOException e) {
+            System.out.printf("Failed to query name server %s: %s%n", server.getHostString(), e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Queries one name server for the CNAME record of a name, without recursion.
+     *
+     * @return the canonical name, or null if the server does not answer it or does not answer in time
+     */
+    static String queryCname(DatagramSocket socket, InetSocketAddress server, String name) {
+        int id = ThreadLocalRandom.current().nextInt(0x10000);
+        byte[] query = query(id, normalize(name));
+        try {
+            socket.send(new DatagramPacket(query, query.length, server));
+            byte[] buffer = new byte[4096];
+            while (true) {
+                DatagramPacket response = new DatagramPacket(buffer, buffer.length);
+                socket.receive(response);
+                // ignore late responses to earlier queries on the same socket
+                if (response.getLength() >= 12 && readShort(buffer, 0) == id) {
+                    return parseCname(buffer, response.getLength(), normalize(name));
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            // malformed or unreachable, treat as not yet propagated
+            return null;
+        }
+    }
+
+    static byte[] query(int id, String name) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeShort(out, id);
+        // standard query, recursion not desired: authoritative servers answer from their own zone data
+        writeShort(out, 0);
+        writeShort(out, 1);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        for (String label : name.split("\\.")) {
+            byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+            out.write(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        out.write(0);
+        writeShort(out, TYPE_CNAME);
+        writeShort(out, CLASS_IN);
+        return out.toByteArray();
+    }
+
+    static String parseCname(byte[] message, int length, String name) {
+        int flags = readShort(message, 2);
+        if ((flags & FLAG_RESPONSE) == 0 || (flags & RCODE_MASK) != 0) {
+            return null;
+        }
+        int questions = readShort(message, 4);
+        int answers = readShort(message, 6);
+        int offset = 12;
+        for (int i = 0; i < questions; i++) {
+            offset = skipName(message, offset, length) + 4;
+        }
+        for (int i = 0; i < answers; i++) {
+            StringBuilder owner = new StringBuilder();
+            offset = readName(message, offset, length, owner);
+            int type = readShort(message, offset);
+            int dataLength = readShort(message, offset + 8);
+            int data = offset + 10;
+            if (data + dataLength > length) {
+                return null;
+            }
+            if (type == TYPE_CNAME && owner.toString().equalsIgnoreCase(name)) {
+                StringBuilder canonicalName = new StringBuilder();
+                readName(message, data, length, canonicalName);
+                return canonicalName.toString();
+            }
+            offset = data + dataLength;
+        }
+        return null;
+    }
+
+    private static int readName(byte[] message, int offset, int length, StringBuilder name) {
+        int next = -1;
+        int jumps = 0;
+        while (true) {
+            if (offset >= length) {
+                throw new IllegalStateException("Truncated DNS name");
+            }
+            int labelLength = message[offset] & 0xFF;
+            if ((labelLength & 0xC0) == 0xC0) {
+                // compression pointer
+                if (++jumps > 16) {
+                    throw new IllegalStateException("DNS name compression loop");
+                }
+                if (next < 0) {
+                    next = offset + 2;
+                }
+                offset = readShort(message, offset) & 0x3FFF;
+            } else if (labelLength == 0) {
+                return next < 0 ? offset + 1 : next;
+            } else {
+                if (name.length() > 0) {
+                    name.append('.');
+                }
+                name.append(new String(message, offset + 1, labelLength, StandardCharsets.US_ASCII));
+                offset += labelLength + 1;
+            }
+        }
+    }
+
+    private static int skipName(byte[] message, int offset, int length) {
+        return readName(message, offset, length, new StringBuilder());
+    }
+
+    private static int readShort(byte[] message, int offset) {
+        return ((message[offset] & 0xFF) << 8) | (message[offset + 1] & 0xFF);
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static String normalize(String name) {
+        String trimmed = name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+        return trimmed.toLowerCase(Locale.ROOT);
+    }
+}
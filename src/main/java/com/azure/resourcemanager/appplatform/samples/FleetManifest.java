@@ -0,0 +1,236 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import com.azure.core.util.serializer.JacksonAdapter;
+import com.azure.core.util.serializer.SerializerEncoding;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Declarative description of a fleet of spring cloud services and apps, read from JSON.
+ * <pre>
+ * {
+ *   "region": "eastus",
+ *   "source": "https://.../piggymetrics.tar.gz",
+ *   "concurrency": { "resourceGroups": 4, "services": 2, "apps": 10, "deployments": 6 },
+ *   "services": [ {
+ *     "name": "service1", "resourceGroup": "rg1",
+ *     "apps": [ { "name": "gateway", "module": "gateway", "instances": 2, "publicEndpoint": true,
+ *                 "domains": [ "www.contoso.com" ] } ]
+ *   } ]
+ * }
+ * </pre>
+ */
+public final class FleetManifest {
+    @JsonProperty("region")
+    private String region;
+
+    @JsonProperty("source")
+    private String source;
+
+    @JsonProperty("concurrency")
+    private Concurrency concurrency = new Concurrency();
+
+    @JsonProperty("services")
+    private List<ServiceSpec> services = new ArrayList<>();
+
+    /**
+     * Reads a manifest from a JSON file.
+     *
+     * @param file the manifest file
+     * @return the manifest
+     * @throws IOException if the file cannot be read or parsed
+     */
+    public static FleetManifest load(File file) throws IOException {
+        String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        FleetManifest manifest = JacksonAdapter.createDefaultSerializerAdapter()
+            .deserialize(json, FleetManifest.class, SerializerEncoding.JSON);
+        manifest.validate();
+        return manifest;
+    }
+
+    /** @return the default region of the services */
+    public String region() {
+        return region;
+    }
+
+    /** @return the default source archive URL of the apps */
+    public String source() {
+        return source;
+    }
+
+    /** @return the concurrency limits per resource type */
+    public Concurrency concurrency() {
+        return concurrency;
+    }
+
+    /** @return the spring cloud services */
+    public List<ServiceSpec> services() {
+        return services;
+    }
+
+    private void validate() {
+        if (services.isEmpty()) {
+            throw new IllegalArgumentException("Fleet manifest defines no services");
+        }
+        for (ServiceSpec service : services) {
+            if (service.name == null || service.resourceGroup == null) {
+                throw new IllegalArgumentException("Every service needs a name and a resourceGroup");
+            }
+            if (service.region == null && region == null) {
+                throw new IllegalArgumentException("Service " + service.name + " has no region");
+            }
+            for (AppSpec app : service.apps) {
+                if (app.name == null) {
+                    throw new IllegalArgumentException("Service " + service.name + " has an app without name");
+                }
+                if (app.source == null && source == null) {
+                    throw new IllegalArgumentException("App " + app.name + " has no source");
+                }
+            }
+        }
+    }
+
+    /**
+     * Maximum number of operations in flight per resource type.
+     */
+    public static final class Concurrency {
+        @JsonProperty("resourceGroups")
+        private int resourceGroups = 4;
+
+        @JsonProperty("services")
+        private int services = 2;
+
+        @JsonProperty("apps")
+        private int apps = 10;
+
+        @JsonProperty("deployments")
+        private int deployments = 6;
+
+        /** @return the maximum number of resource group creations in flight */
+        public int resourceGroups() {
+            return resourceGroups;
+        }
+
+        /** @return the maximum number of spring cloud service creations in flight */
+        public int services() {
+            return services;
+        }
+
+        /** @return the maximum number of app creations in flight */
+        public int apps() {
+            return apps;
+        }
+
+        /** @return the maximum number of deployments in flight */
+        public int deployments() {
+            return deployments;
+        }
+    }
+
+    /**
+     * A spring cloud service and its apps.
+     */
+    public static final class ServiceSpec {
+        @JsonProperty("name")
+        private String name;
+
+        @JsonProperty("resourceGroup")
+        private String resourceGroup;
+
+        @JsonProperty("region")
+        private String region;
+
+        @JsonProperty("apps")
+        private List<AppSpec> apps = new ArrayList<>();
+
+        /** @return the service name */
+        public String name() {
+            return name;
+        }
+
+        /** @return the resource group of the service */
+        public String resourceGroup() {
+            return resourceGroup;
+        }
+
+        /** @return the region of the service, or null for the fleet default */
+        public String region() {
+            return region;
+        }
+
+        /** @return the apps of the service */
+        public List<AppSpec> apps() {
+            return apps;
+        }
+    }
+
+    /**
+     * A spring cloud app built from a module of a source archive.
+     */
+    public static final class AppSpec {
+        @JsonProperty("name")
+        private String name;
+
+        @JsonProperty("module")
+        private String module;
+
+        @JsonProperty("source")
+        private String source;
+
+        @JsonProperty("instances")
+        private int instances = 1;
+
+        @JsonProperty("publicEndpoint")
+        private boolean publicEndpoint;
+
+        @JsonProperty("httpsOnly")
+        private boolean httpsOnly;
+
+        @JsonProperty("domains")
+        private List<String> domains = new ArrayList<>();
+
+        /** @return the app name */
+        public String name() {
+            return name;
+        }
+
+        /** @return the target module, defaulting to the app name */
+        public String module() {
+            return module == null ? name : module;
+        }
+
+        /** @return the source archive URL, or null for the fleet default */
+        public String source() {
+            return source;
+        }
+
+        /** @return the number of instances of the active deployment */
+        public int instances() {
+            return instances;
+        }
+
+        /** @return whether the app gets a public endpoint */
+        public boolean publicEndpoint() {
+            return publicEndpoint;
+        }
+
+        /** @return whether the app only accepts https */
+        public boolean httpsOnly() {
+            return httpsOnly;
+        }
+
+        /** @return custom domains to bind; their DNS records must already point at the app */
+        public List<String> domains() {
+            return domains;
+        }
+    }
+}
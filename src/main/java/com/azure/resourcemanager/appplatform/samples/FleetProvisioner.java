@@ -0,0 +1,354 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import com.azure.core.management.Region;
+import com.azure.core.management.exception.ManagementException;
+import com.azure.core.util.polling.SyncPoller;
+import com.azure.resourcemanager.AzureResourceManager;
+import com.azure.resourcemanager.appplatform.fluent.AppPlatformManagementClient;
+import com.azure.resourcemanager.appplatform.fluent.models.AppResourceInner;
+import com.azure.resourcemanager.appplatform.models.ActiveDeploymentCollection;
+import com.azure.resourcemanager.appplatform.models.AppResourceProperties;
+import com.azure.resourcemanager.appplatform.models.SpringApp;
+import com.azure.resourcemanager.appplatform.models.SpringAppDeployment;
+import com.azure.resourcemanager.appplatform.models.SpringService;
+import com.azure.resourcemanager.appplatform.models.UserSourceType;
+import com.azure.resourcemanager.resources.models.ResourceGroup;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.File;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Provisions every service and app of a {@link FleetManifest}.
+ * <p>
+ * The work is pipelined: each service starts as soon as its resource group exists, and each app as soon as its
+ * service exists. A shared {@link OperationLimiter} per resource type keeps the number of operations in flight
+ * within the limits of the manifest, across all services. Services, apps and deployments are started with their
+ * {@code begin*} calls and polled by the shared {@link LongRunningOperationPoller}, so hundreds of overlapping
+ * operations are polled from a few threads at intervals suited to each kind. {@link #reconcile(FleetManifest)}
+ * brings an existing fleet to the manifest with only the missing creates and updates.
+ */
+public final class FleetProvisioner {
+
+    private final AzureResourceManager azureResourceManager;
+    private final Map<String, Mono<File>> sources = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a provisioner.
+     *
+     * @param azureResourceManager instance of the azure client
+     */
+    public FleetProvisioner(AzureResourceManager azureResourceManager) {
+        this.azureResourceManager = azureResourceManager;
+    }
+
+    private AppPlatformManagementClient client() {
+        return azureResourceManager.springServices().manager().serviceClient();
+    }
+
+    /**
+     * Provisions the fleet, continuing past failures of individual services and apps.
+     *
+     * @param manifest the fleet manifest
+     * @return the outcome of every app
+     */
+    public List<AppOutcome> provision(FleetManifest manifest) {
+        FleetManifest.Concurrency concurrency = manifest.concurrency();
+        OperationLimiter groupLimiter = new OperationLimiter("resource group", concurrency.resourceGroups());
+        OperationLimiter serviceLimiter = new OperationLimiter("spring cloud service", concurrency.services());
+        OperationLimiter appLimiter = new OperationLimiter("spring cloud app", concurrency.apps());
+        OperationLimiter deploymentLimiter = new OperationLimiter("deployment", concurrency.deployments());
+
+        Map<String, Mono<ResourceGroup>> groups = new ConcurrentHashMap<>();
+        long start = System.nanoTime();
+
+        List<AppOutcome> outcomes = Flux.fromIterable(manifest.services())
+            .flatMap(spec -> {
+                Region region = Region.fromName(spec.region() == null ? manifest.region() : spec.region());
+                Mono<ResourceGroup> group = groups.computeIfAbsent(spec.resourceGroup(), name -> groupLimiter.limit(
+                    azureResourceManager.resourceGroups().define(name).withRegion(region).createAsync()).cache());
+
+                return group
+                    .then(serviceLimiter.limit(Mono.defer(() -> {
+                        System.out.printf("Creating spring cloud service %s in resource group %s ...%n", spec.name(), spec.resourceGroup());
+                        return createService(spec, region);
+                    })))
+                    .flatMapMany(service -> Flux.fromIterable(spec.apps())
+                        .flatMap(app -> provisionApp(manifest, service, app, appLimiter, deploymentLimiter)))
+                    .onErrorResume(e -> Flux.fromIterable(spec.apps())
+                        .map(app -> new AppOutcome(spec.name(), app.name(), e, Duration.ofNanos(System.nanoTime() - start))));
+            }, manifest.services().size())
+            .collectList()
+            .block();
+
+        int failed = 0;
+        for (AppOutcome outcome : outcomes) {
+            if (outcome.error() == null) {
+                System.out.printf("Provisioned %s/%s in %d s%n", outcome.service(), outcome.app(), outcome.duration().getSeconds());
+            } else {
+                failed++;
+                System.out.printf("Failed %s/%s after %d s: %s%n",
+                    outcome.service(), outcome.app(), outcome.duration().getSeconds(), outcome.error().getMessage());
+            }
+        }
+        System.out.printf("Provisioned %d of %d apps in %d services in %d s with %d status polls%n",
+            outcomes.size() - failed, outcomes.size(), manifest.services().size(),
+            Duration.ofNanos(System.nanoTime() - start).getSeconds(), LongRunningOperationPoller.shared().polls());
+        return outcomes;
+    }
+
+    private Mono<AppOutcome> provisionApp(FleetManifest manifest, SpringService service, FleetManifest.AppSpec spec,
+                                          OperationLimiter appLimiter, OperationLimiter deploymentLimiter) {
+        long start = System.nanoTime();
+        return appLimiter.limit(Mono.defer(() -> {
+            // the app is created without the placeholder deployment of the fluent create, deploy() adds the real one
+            AppResourceInner app = new AppResourceInner().withProperties(new AppResourceProperties()
+                .withPublicProperty(spec.publicEndpoint())
+                .withHttpsOnly(spec.httpsOnly()));
+            return track("create spring cloud app " + service.name() + "/" + spec.name(),
+                LongRunningOperationPoller.OperationType.SPRING_APP,
+                () -> client().getApps().beginCreateOrUpdate(service.resourceGroupName(), service.name(), spec.name(), app))
+                .then(service.apps().getByNameAsync(spec.name()));
+        }))
+            .flatMap(app -> deploy(app, spec, source(manifest, spec), deploymentLimiter).thenReturn(app))
+            .flatMap(app -> bindDomains(app, spec.domains()))
+            .map(app -> new AppOutcome(service.name(), spec.name(), null, Duration.ofNanos(System.nanoTime() - start)))
+            .onErrorResume(e -> Mono.just(new AppOutcome(service.name(), spec.name(), e, Duration.ofNanos(System.nanoTime() - start))));
+    }
+
+    /**
+     * Reconciles the fleet with the manifest: reads the current state of every resource group, service, app,
+     * active deployment and custom domain, and only issues the creates and updates needed to reach the manifest.
+     * A re-run against an unchanged fleet only issues reads.
+     * <p>
+     * Only what the manifest describes is reconciled: app endpoints, the module and instance count of the active
+     * deployment, and missing custom domains. The manifest does not describe DNS records, certificates or Key Vault
+     * secrets, so they are left as they are; {@link ManageSpringCloud#runSample} reconciles those of the sample topology
+     * with {@code -Dsample.reconcile=true}. Domains bound outside the manifest are not unbound.
+     *
+     * @param manifest the fleet manifest
+     * @return the outcome of every app
+     */
+    public List<AppOutcome> reconcile(FleetManifest manifest) {
+        FleetManifest.Concurrency concurrency = manifest.concurrency();
+        OperationLimiter groupLimiter = new OperationLimiter("resource group", concurrency.resourceGroups());
+        OperationLimiter serviceLimiter = new OperationLimiter("spring cloud service", concurrency.services());
+        OperationLimiter appLimiter = new OperationLimiter("spring cloud app", concurrency.apps());
+        OperationLimiter deploymentLimiter = new OperationLimiter("deployment", concurrency.deployments());
+
+        Map<String, Mono<Boolean>> groups = new ConcurrentHashMap<>();
+        long start = System.nanoTime();
+
+        List<AppOutcome> outcomes = Flux.fromIterable(manifest.services())
+            .flatMap(spec -> {
+                Region region = Region.fromName(spec.region() == null ? manifest.region() : spec.region());
+                Mono<Boolean> group = groups.computeIfAbsent(spec.resourceGroup(), name ->
+                    azureResourceManager.resourceGroups().getByNameAsync(name)
+                        .onErrorResume(FleetProvisioner::isNotFound, e -> Mono.empty())
+                        .switchIfEmpty(groupLimiter.limit(Mono.defer(() -> {
+                            System.out.printf("Reconcile: creating resource group %s%n", name);
+                            return azureResourceManager.resourceGroups().define(name).withRegion(region).createAsync();
+                        })))
+                        .thenReturn(true)
+                        .cache());
+
+                Mono<SpringService> service = group
+                    .then(azureResourceManager.springServices().getByResourceGroupAsync(spec.resourceGroup(), spec.name())
+                        .onErrorResume(FleetProvisioner::isNotFound, e -> Mono.empty()))
+                    .switchIfEmpty(serviceLimiter.limit(Mono.defer(() -> {
+                        System.out.printf("Reconcile: creating spring cloud service %s%n", spec.name());
+                        return createService(spec, region);
+                    })));
+
+                return service
+                    .flatMapMany(existingService -> existingService.apps().listAsync()
+                        .collectMap(SpringApp::name)
+                        .flatMapMany(apps -> Flux.fromIterable(spec.apps())
+                            .flatMap(app -> apps.containsKey(app.name())
+                                ? reconcileApp(manifest, apps.get(app.name()), app, deploymentLimiter)
+                                : provisionApp(manifest, existingService, app, appLimiter, deploymentLimiter))))
+                    .onErrorResume(e -> Flux.fromIterable(spec.apps())
+                        .map(app -> new AppOutcome(spec.name(), app.name(), e, Duration.ofNanos(System.nanoTime() - start))));
+            }, manifest.services().size())
+            .collectList()
+            .block();
+
+        System.out.printf("Reconciled %d apps in %d services in %d s%n",
+            outcomes.size(), manifest.services().size(), Duration.ofNanos(System.nanoTime() - start).getSeconds());
+        return outcomes;
+    }
+
+    private Mono<AppOutcome> reconcileApp(FleetManifest manifest, SpringApp app, FleetManifest.AppSpec spec,
+                                          OperationLimiter deploymentLimiter) {
+        long start = System.nanoTime();
+        String service = app.parent().name();
+
+        // endpoint and custom domain changes are applied as one app update once the deployment is reconciled
+        UpdateCoalescer updates = new UpdateCoalescer();
+        if (app.isPublic() != spec.publicEndpoint()) {
+            System.out.printf("Reconcile: updating endpoint of %s/%s%n", service, spec.name());
+            updates.update(app.id(), app, update -> spec.publicEndpoint()
+                ? update.withDefaultPublicEndpoint() : update.withoutDefaultPublicEndpoint());
+        }
+        if (app.isHttpsOnly() != spec.httpsOnly()) {
+            System.out.printf("Reconcile: updating https only of %s/%s%n", service, spec.name());
+            updates.update(app.id(), app, update -> spec.httpsOnly() ? update.withHttpsOnly() : update.withoutHttpsOnly());
+        }
+
+        return Mono.just(app)
+            .flatMap(current -> current.getActiveDeploymentAsync()
+                .flatMap(deployment -> {
+                    String module = SharedSourceUpload.targetModule(deployment);
+                    if (!spec.module().equals(module)) {
+                        System.out.printf("Reconcile: redeploying %s/%s from module %s%n", service, spec.name(), spec.module());
+                        return fetchSource(source(manifest, spec))
+                            .flatMap(file -> deploymentLimiter.limit(SharedSourceUpload.uploadAsync(current, file)
+                                .flatMap(relativePath -> SharedSourceUpload.withUploadedSource(
+                                    deployment.update().withInstance(spec.instances()), relativePath, spec.module())
+                                    .applyAsync())));
+                    }
+                    Integer instances = deployment.innerModel().sku() == null ? null : deployment.innerModel().sku().capacity();
+                    if (instances == null || instances != spec.instances()) {
+                        System.out.printf("Reconcile: scaling %s/%s to %d instances%n", service, spec.name(), spec.instances());
+                        return deployment.update().withInstance(spec.instances()).applyAsync();
+                    }
+                    return Mono.just(deployment);
+                })
+                .switchIfEmpty(Mono.defer(() -> {
+                    System.out.printf("Reconcile: deploying %s/%s%n", service, spec.name());
+                    return deploy(current, spec, source(manifest, spec), deploymentLimiter);
+                }))
+                .then(current.customDomains().listAsync().map(domain -> domain.name()).collectList())
+                .flatMap(bound -> {
+                    List<String> missing = new ArrayList<>(spec.domains());
+                    missing.removeAll(bound);
+                    if (!missing.isEmpty()) {
+                        System.out.printf("Reconcile: binding %s to %s/%s%n", missing, service, spec.name());
+                    }
+                    for (String domain : missing) {
+                        updates.update(current.id(), current, update -> update.withCustomDomain(domain));
+                    }
+                    return updates.flushAsync().thenReturn(current);
+                }))
+            .map(current -> new AppOutcome(service, spec.name(), null, Duration.ofNanos(System.nanoTime() - start)))
+            .onErrorResume(e -> Mono.just(new AppOutcome(service, spec.name(), e, Duration.ofNanos(System.nanoTime() - start))));
+    }
+
+    private Mono<SpringService> createService(FleetManifest.ServiceSpec spec, Region region) {
+        // the fluent definition builds the same request as its create would, which is then polled by the shared poller
+        SpringService definition = (SpringService) azureResourceManager.springServices().define(spec.name())
+            .withRegion(region)
+            .withExistingResourceGroup(spec.resourceGroup());
+        return track("create spring cloud service " + spec.name(), LongRunningOperationPoller.OperationType.SPRING_SERVICE,
+            () -> client().getServices().beginCreateOrUpdate(spec.resourceGroup(), spec.name(), definition.innerModel()))
+            .flatMap(inner -> azureResourceManager.springServices().getByIdAsync(inner.id()));
+    }
+
+    private Mono<SpringAppDeployment> deploy(SpringApp app, FleetManifest.AppSpec spec, String source,
+                                             OperationLimiter deploymentLimiter) {
+        String resourceGroup = app.parent().resourceGroupName();
+        String service = app.parent().name();
+        return fetchSource(source)
+            .flatMap(file -> deploymentLimiter.limit(SharedSourceUpload.uploadAsync(app, file)
+                .flatMap(relativePath -> {
+                    SpringAppDeployment definition = (SpringAppDeployment) SharedSourceUpload.withTargetModule(
+                        app.deployments().define("default")
+                            .withExistingSource(UserSourceType.SOURCE, relativePath)
+                            .withInstance(spec.instances()), spec.module());
+                    String name = service + "/" + app.name() + "/default";
+                    return track("create deployment " + name, LongRunningOperationPoller.OperationType.SPRING_APP,
+                        () -> client().getDeployments().beginCreateOrUpdate(resourceGroup, service, app.name(), "default",
+                            definition.innerModel()))
+                        .then(track("activate deployment " + name, LongRunningOperationPoller.OperationType.SPRING_APP,
+                            () -> client().getApps().beginSetActiveDeployments(resourceGroup, service, app.name(),
+                                new ActiveDeploymentCollection().withActiveDeploymentNames(Collections.singletonList("default")))));
+                })))
+            .then(app.deployments().getByNameAsync("default"));
+    }
+
+    /**
+     * Starts an operation on a worker thread, since the {@code begin*} call sends the initial request, and hands its
+     * poller to the shared {@link LongRunningOperationPoller}.
+     */
+    private static <T, U> Mono<U> track(String name, LongRunningOperationPoller.OperationType type,
+                                        Supplier<SyncPoller<T, U>> begin) {
+        return Mono.fromCallable(begin::get)
+            .subscribeOn(Schedulers.boundedElastic())
+            .flatMap(poller -> Mono.fromFuture(LongRunningOperationPoller.shared().track(name, type, poller)));
+    }
+
+    private static Mono<SpringApp> bindDomains(SpringApp app, List<String> domains) {
+        if (domains.isEmpty()) {
+            return Mono.just(app);
+        }
+        SpringApp.Update update = app.update();
+        for (String domain : domains) {
+            update = update.withCustomDomain(domain);
+        }
+        return update.applyAsync();
+    }
+
+    private static String source(FleetManifest manifest, FleetManifest.AppSpec spec) {
+        return spec.source() == null ? manifest.source() : spec.source();
+    }
+
+    private static boolean isNotFound(Throwable e) {
+        return e instanceof ManagementException && ((ManagementException) e).getResponse() != null
+            && ((ManagementException) e).getResponse().getStatusCode() == 404;
+    }
+
+    private Mono<File> fetchSource(String url) {
+        return sources.computeIfAbsent(url, key -> Mono.fromCallable(() -> ArtifactCache.getDefault().fetch(new URL(key)))
+            .subscribeOn(Schedulers.boundedElastic())
+            .cache());
+    }
+
+    /**
+     * Outcome of provisioning one app.
+     */
+    public static final class AppOutcome {
+        private final String service;
+        private final String app;
+        private final Throwable error;
+        private final Duration duration;
+
+        private AppOutcome(String service, String app, Throwable error, Duration duration) {
+            this.service = service;
+            this.app = app;
+            this.error = error;
+            this.duration = duration;
+        }
+
+        /** @return the service name */
+        public String service() {
+            return service;
+        }
+
+        /** @return the app name */
+        public String app() {
+            return app;
+        }
+
+        /** @return the failure, or null if the app was provisioned */
+        public Throwable error() {
+            return error;
+        }
+
+        /** @return the time from the start of the app, or of the fleet for service failures, to its outcome */
+        public Duration duration() {
+            return duration;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import com.azure.core.util.polling.LongRunningOperationStatus;
+import com.azure.core.util.polling.PollResponse;
+import com.azure.core.util.polling.SyncPoller;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Polls many long-running operations from a small fixed pool of threads.
+ * <p>
+ * Callers hand over the {@link SyncPoller} returned by a {@code begin*} call instead of blocking on it. Each
+ * operation is polled at an interval that depends on its {@link OperationType} and grows with its elapsed time,
+ * never faster than the {@code Retry-After} of the service, and its future completes with the final result.
+ */
+public final class LongRunningOperationPoller {
+
+    /**
+     * Polling profile of a kind of operation.
+     */
+    public enum OperationType {
+        /** Spring cloud service creation, which takes many minutes. */
+        SPRING_SERVICE(Duration.ofSeconds(60), Duration.ofSeconds(15), Duration.ofSeconds(60)),
+        /** Spring cloud app or deployment operations, which include a remote build. */
+        SPRING_APP(Duration.ofSeconds(20), Duration.ofSeconds(5), Duration.ofSeconds(30)),
+        /** Resource group deletion, which waits for every contained resource. */
+        DELETION(Duration.ofSeconds(30), Duration.ofSeconds(10), Duration.ofSeconds(60)),
+        /** Key vault, certificate and domain operations. */
+        DEFAULT(Duration.ofSeconds(5), Duration.ofSeconds(2), Duration.ofSeconds(30)),
+        /** DNS record and other fast updates. */
+        FAST(Duration.ofMillis(500), Duration.ofMillis(500), Duration.ofSeconds(5));
+
+        private final Duration firstPoll;
+        private final Duration minInterval;
+        private final Duration maxInterval;
+
+        OperationType(Duration firstPoll, Duration minInterval, Duration maxInterval) {
+            this.firstPoll = firstPoll;
+            this.minInterval = minInterval;
+            this.maxInterval = maxInterval;
+        }
+
+        /**
+         * @param elapsed time since the operation started
+         * @return the delay before the next poll, about a tenth of the elapsed time within the bounds of the type
+         */
+        Duration nextInterval(Duration elapsed) {
+            Duration interval = elapsed.dividedBy(10);
+            if (interval.compareTo(minInterval) < 0) {
+                return minInterval;
+            }
+            return interval.compareTo(maxInterval) > 0 ? maxInterval : interval;
+        }
+    }
+
+    private static final LongRunningOperationPoller SHARED = new LongRunningOperationPoller(4);
+
+    private final ScheduledExecutorService executor;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong polls = new AtomicLong();
+
+    /**
+     * Creates a poller.
+     *
+     * @param threads the number of polling threads
+     */
+    public LongRunningOperationPoller(int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(threads, runnable -> {
+            Thread thread = new Thread(runnable, "lro-poller-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        this.executor = scheduler;
+    }
+
+    /** @return the poller shared by the whole process */
+    public static LongRunningOperationPoller shared() {
+        return SHARED;
+    }
+
+    /**
+     * Tracks an operation until it reaches a terminal state.
+     *
+     * @param name the operation name, used in progress output
+     * @param type the polling profile of the operation
+     * @param poller the poller returned by the {@code begin*} call
+     * @param <T> type of the poll responses
+     * @param <U> type of the final result
+     * @return a future completed with the final result, or exceptionally if the operation fails or is cancelled
+     */
+    public <T, U> CompletableFuture<U> track(String name, OperationType type, SyncPoller<T, U> poller) {
+        CompletableFuture<U> future = new CompletableFuture<>();
+        inFlight.incrementAndGet();
+        future.whenComplete((result, error) -> inFlight.decrementAndGet());
+        long start = System.nanoTime();
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    polls.incrementAndGet();
+                    PollResponse<T> response = poller.poll();
+                    LongRunningOperationStatus status = response.getStatus();
+                    Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+                    if (status == LongRunningOperationStatus.SUCCESSFULLY_COMPLETED) {
+                        System.out.printf("Operation %s completed in %d s%n", name, elapsed.getSeconds());
+                        future.complete(poller.getFinalResult());
+                    } else if (status.isComplete()) {
+                        future.completeExceptionally(new IllegalStateException(
+                            String.format("Operation %s finished with status %s after %d s", name, status, elapsed.getSeconds())));
+                    } else {
+                        Duration delay = type.nextInterval(elapsed);
+                        if (response.getRetryAfter() != null && response.getRetryAfter().compareTo(delay) > 0) {
+                            delay = response.getRetryAfter();
+                        }
+                        schedule(this, delay);
+                    }
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        }, type.firstPoll);
+        return future;
+    }
+
+    /** @return the number of operations being tracked */
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    /** @return the number of status polls issued so far */
+    public long polls() {
+        return polls.get();
+    }
+
+    private void schedule(Runnable poll, Duration delay) {
+        executor.schedule(poll, delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+}
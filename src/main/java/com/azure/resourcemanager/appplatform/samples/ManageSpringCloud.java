@@ -4,55 +4,72 @@
 package com.azure.resourcemanager.appplatform.samples;
 
 import com.azure.core.credential.TokenCredential;
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.policy.FixedDelay;
 import com.azure.core.http.policy.HttpLogDetailLevel;
+import com.azure.core.http.policy.RetryPolicy;
 import com.azure.core.management.AzureEnvironment;
 import com.azure.core.management.Region;
 import com.azure.core.management.profile.AzureProfile;
 import com.azure.core.util.Configuration;
 import com.azure.identity.DefaultAzureCredentialBuilder;
 import com.azure.resourcemanager.AzureResourceManager;
+import com.azure.resourcemanager.appplatform.models.KeyVaultCertificateProperties;
 import com.azure.resourcemanager.appplatform.models.SpringApp;
+import com.azure.resourcemanager.appplatform.models.SpringAppDeployment;
+import com.azure.resourcemanager.appplatform.models.SpringAppDomain;
 import com.azure.resourcemanager.appplatform.models.SpringService;
+import com.azure.resourcemanager.appplatform.models.SpringServiceCertificate;
+import com.azure.resourcemanager.appplatform.models.UserSourceType;
 import com.azure.resourcemanager.appservice.models.AppServiceDomain;
+import com.azure.resourcemanager.dns.models.CnameRecordSet;
 import com.azure.resourcemanager.dns.models.DnsZone;
 import com.azure.resourcemanager.keyvault.models.CertificatePermissions;
 import com.azure.resourcemanager.keyvault.models.SecretPermissions;
 import com.azure.resourcemanager.keyvault.models.Vault;
 import com.azure.resourcemanager.resources.fluentcore.arm.CountryIsoCode;
 import com.azure.resourcemanager.resources.fluentcore.arm.CountryPhoneCode;
+import com.azure.resourcemanager.resources.fluentcore.model.Creatable;
+import com.azure.resourcemanager.resources.models.ResourceGroup;
+import com.azure.resourcemanager.samples.AdaptiveRetryPolicy;
+import com.azure.resourcemanager.samples.ArmReadCachePolicy;
+import com.azure.resourcemanager.samples.ArmThrottlingPolicy;
+import com.azure.resourcemanager.samples.CertificateGenerator;
+import com.azure.resourcemanager.samples.KeyPairPool;
+import com.azure.resourcemanager.samples.SingleFlightPolicy;
 import com.azure.resourcemanager.samples.Utils;
 import com.azure.security.keyvault.certificates.CertificateClient;
 import com.azure.security.keyvault.certificates.CertificateClientBuilder;
 import com.azure.security.keyvault.certificates.models.ImportCertificateOptions;
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
-import org.apache.commons.compress.utils.IOUtils;
+import com.azure.security.keyvault.certificates.models.KeyVaultCertificateWithPolicy;
+import reactor.core.publisher.Flux;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
-import javax.xml.bind.DatatypeConverter;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.security.KeyManagementException;
-import java.security.KeyStore;
 import java.security.KeyStoreException;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 /**
  * Azure App Platform sample for managing Spring Cloud.
@@ -78,93 +95,508 @@ public class ManageSpringCloud {
      * @throws IllegalStateException unexcepted state
      */
     public static boolean runSample(AzureResourceManager azureResourceManager, String clientId) throws IOException, KeyStoreException, CertificateException, NoSuchAlgorithmException, KeyManagementException {
-        final String rgName = Utils.randomResourceName(azureResourceManager, "rg", 24);
-        final String serviceName  = Utils.randomResourceName(azureResourceManager, "service", 24);
+        // -Dprovisioning.journal=<file> records completed steps, so that a failed run keeps its resources
+        // and the next run with the same journal resumes at the first incomplete step
+        final String journalPath = System.getProperty("provisioning.journal");
+        final ProvisioningJournal journal = journalPath == null ? null : ProvisioningJournal.open(new File(journalPath));
+        final Map<String, String> names = resourceNames(azureResourceManager, journal);
+        // -Dsample.reconcile=true keeps the topology after a successful run. Each run with the same journal then
+        // reads the current state of every resource and only creates or updates what differs from the sample.
+        final boolean reconcile = Boolean.getBoolean("sample.reconcile");
+        if (reconcile && journal == null) {
+            throw new IllegalStateException("Reconcile with -Dprovisioning.journal, the journal keeps the resource names");
+        }
+
+        final String rgName = names.get("rg");
+        final String serviceName  = names.get("service");
         final Region region = Region.US_EAST;
-        final String domainName = Utils.randomResourceName(azureResourceManager, "jsdkdemo-", 20) + ".com";
-        final String vaultName = Utils.randomResourceName(azureResourceManager, "vault", 15);
-        final String certName = Utils.randomResourceName(azureResourceManager, "cert", 15);
+        final String domainName = names.get("domain");
+        final String vaultName = names.get("vault");
+        final String certName = names.get("cert");
+        boolean succeeded = false;
+
+        // -Dspring.pool.resourceGroup=<rg> leases a pre-created service from a warm pool instead of creating one
+        final String poolResourceGroup = System.getProperty("spring.pool.resourceGroup");
+        final SpringServicePool pool = poolResourceGroup == null
+            ? null
+            : new SpringServicePool(azureResourceManager, poolResourceGroup, region, Integer.getInteger("spring.pool.size", 2));
+        if (reconcile && pool != null) {
+            throw new IllegalStateException("Reconcile without -Dspring.pool.resourceGroup, a leased service goes back to the pool");
+        }
+        final AtomicReference<SpringServicePool.Lease> lease = new AtomicReference<>();
 
         try {
-            azureResourceManager.resourceGroups().define(rgName)
-                .withRegion(region)
-                .create();
-
             //============================================================
-            // Create a spring cloud service with 3 apps: gateway, auth-service, account-service
+            // Describe the sample as a graph of steps. Each step starts as soon as its dependencies are done,
+            // so domain purchase, key vault creation and certificate generation run while the apps build.
+            // The certificate key pair is generated in the background from the start.
+
+            KeyPairPool.shared().warmUp("RSA", 2048);
+            StepScheduler workflow = new StepScheduler()
+                // when reconciling, steps read the current state instead of trusting the journal, which only keeps the names
+                .withJournal(reconcile ? null : journal)
+                .step("resourceGroup", results -> {
+                    ResourceGroup existing = reconcile
+                        ? existing(() -> azureResourceManager.resourceGroups().getByName(rgName)) : null;
+                    if (existing != null) {
+                        return existing;
+                    }
+                    return azureResourceManager.resourceGroups().define(rgName)
+                        .withRegion(region)
+                        .create();
+                },
+                    (ResourceGroup resourceGroup) -> id(resourceGroup.id()),
+                    (values, results) -> azureResourceManager.resourceGroups().getByName(rgName))
+
+                //============================================================
+                // Create a spring cloud service with 3 apps: gateway, auth-service, account-service
+
+                .step("service", results -> {
+                    if (pool != null) {
+                        lease.set(pool.lease(Duration.ofHours(2)));
+                        Utils.print(lease.get().service());
+                        return lease.get().service();
+                    }
+                    SpringService existing = reconcile
+                        ? existing(() -> azureResourceManager.springServices().getByResourceGroup(rgName, serviceName)) : null;
+                    if (existing != null) {
+                        return existing;
+                    }
 
-            System.out.printf("Creating spring cloud service %s in resource group %s ...%n", serviceName, rgName);
+                    System.out.printf("Creating spring cloud service %s in resource group %s ...%n", serviceName, rgName);
+
+                    // the step already runs on its own thread alongside the others, so the fluent create, which keeps
+                    // the default SKU, blocks nothing else; the shared poller is for many operations in flight at once
+                    SpringService service = azureResourceManager.springServices().define(serviceName)
+                        .withRegion(region)
+                        .withExistingResourceGroup(rgName)
+                        .create();
+
+                    System.out.printf("Created spring cloud service %s%n", service.name());
+                    Utils.print(service);
+                    return service;
+                },
+                    (SpringService service) -> lease.get() == null
+                        ? id(service.id()) : leaseCheckpoint(service.id(), lease.get().id()),
+                    (values, results) -> {
+                        if (values.get("lease") == null) {
+                            return azureResourceManager.springServices().getById(values.get("id"));
+                        }
+                        if (pool == null) {
+                            throw new IllegalStateException("Resume with -Dspring.pool.resourceGroup, the service was leased");
+                        }
+                        lease.set(pool.resume(values.get("id"), values.get("lease")));
+                        return lease.get().service();
+                    },
+                    "resourceGroup")
+
+                // get source code of a sample project, verified and shared through the local artifact cache,
+                // indexed so that each module can be read without inflating the others
+                .step("source", results -> ArtifactCache.getDefault().fetchIndex(new URL(PIGGYMETRICS_TAR_GZ_URL)))
+
+                //============================================================
+                // Create spring cloud apps: gateway, auth-service, account-service
+                // The apps do not depend on each other, so they are built concurrently.
+
+                .step("apps", results -> {
+                    SpringService service = results.get("service");
+                    TarGzIndex source = results.get("source");
+
+                    Map<String, SpringApp> existing = new LinkedHashMap<>();
+                    if (reconcile) {
+                        for (SpringApp app : service.apps().list()) {
+                            existing.put(app.name(), app);
+                        }
+                    }
 
-            SpringService service = azureResourceManager.springServices().define(serviceName)
-                .withRegion(region)
-                .withExistingResourceGroup(rgName)
-                .create();
+                    Map<String, Creatable<SpringApp>> appDefinitions = new LinkedHashMap<>();
+                    if (!existing.containsKey("gateway")) {
+                        appDefinitions.put("gateway", service.apps().define("gateway")
+                            .withDefaultActiveDeployment()
+                            .withDefaultPublicEndpoint()
+                            .withHttpsOnly());
+                    }
+                    if (!existing.containsKey("auth-service")) {
+                        appDefinitions.put("auth-service", service.apps().define("auth-service")
+                            .withDefaultActiveDeployment());
+                    }
+                    if (!existing.containsKey("account-service")) {
+                        appDefinitions.put("account-service", service.apps().define("account-service")
+                            .withDefaultActiveDeployment());
+                    }
+
+                    Map<String, SpringApp> apps = appDefinitions.isEmpty()
+                        ? new LinkedHashMap<>() : ConcurrentAppProvisioner.createAll(appDefinitions);
+                    // existing apps are only redeployed when their active deployment does not build their own module
+                    for (SpringApp app : existing.values()) {
+                        SpringAppDeployment deployment = app.getActiveDeployment();
+                        if (deployment == null || !app.name().equals(SharedSourceUpload.targetModule(deployment))) {
+                            System.out.printf("Reconcile: redeploying %s%n", app.name());
+                            apps.put(app.name(), app);
+                        }
+                    }
+                    if (!apps.isEmpty()) {
+                        deploySources(apps, source);
+                    }
 
-            System.out.printf("Created spring cloud service %s%n", service.name());
-            Utils.print(service);
-
-            // get source code of a sample project
-            File gzFile = new File("piggymetrics.tar.gz");
-            if (!gzFile.exists()) {
-                HttpURLConnection connection = (HttpURLConnection) new URL(PIGGYMETRICS_TAR_GZ_URL).openConnection();
-                connection.connect();
-                try (InputStream inputStream = connection.getInputStream();
-                     OutputStream outputStream = new FileOutputStream(gzFile)) {
-                    IOUtils.copy(inputStream, outputStream);
+                    SpringApp gateway = apps.containsKey("gateway") ? apps.get("gateway") : existing.get("gateway");
+                    if (!gateway.isPublic() || !gateway.isHttpsOnly()) {
+                        System.out.println("Reconcile: updating endpoint of gateway");
+                        gateway = gateway.update()
+                            .withDefaultPublicEndpoint()
+                            .withHttpsOnly()
+                            .apply();
+                    }
+                    return gateway;
+                },
+                    (SpringApp gateway) -> id(gateway.id()),
+                    (values, results) -> results.<SpringService>get("service").apps().getByName("gateway"),
+                    "service", "source")
+
+                //============================================================
+                // Create App Service Domain and Certificate
+
+                .step("domain", results -> {
+                    AppServiceDomain existing = reconcile
+                        ? existing(() -> azureResourceManager.appServiceDomains().getByResourceGroup(rgName, domainName)) : null;
+                    if (existing != null) {
+                        return existing;
+                    }
+                    System.out.println("Purchasing a domain " + domainName + "...");
+
+                    AppServiceDomain domain = azureResourceManager.appServiceDomains().define(domainName)
+                        .withExistingResourceGroup(rgName)
+                        .defineRegistrantContact()
+                            .withFirstName("Jon")
+                            .withLastName("Doe")
+                            .withEmail("jondoe@contoso.com")
+                            .withAddressLine1("123 4th Ave")
+                            .withCity("Redmond")
+                            .withStateOrProvince("WA")
+                            .withCountry(CountryIsoCode.UNITED_STATES)
+                            .withPostalCode("98052")
+                            .withPhoneCountryCode(CountryPhoneCode.UNITED_STATES)
+                            .withPhoneNumber("4258828080")
+                            .attach()
+                        .withDomainPrivacyEnabled(true)
+                        .withAutoRenewEnabled(false)
+                        .create();
+                    System.out.println("Purchased domain " + domain.name());
+                    Utils.print(domain);
+                    return domain;
+                },
+                    (AppServiceDomain domain) -> id(domain.id()),
+                    (values, results) -> azureResourceManager.appServiceDomains().getById(values.get("id")),
+                    "resourceGroup")
+
+                .step("dnsRecord", results -> {
+                    AppServiceDomain domain = results.get("domain");
+                    SpringApp gateway = results.get("apps");
+
+                    DnsZone dnsZone = azureResourceManager.dnsZones().getById(domain.dnsZoneId());
+                    gateway.refresh();
+
+                    CnameRecordSet record = reconcile ? existing(() -> dnsZone.cNameRecordSets().getByName("ssl")) : null;
+                    if (record != null && sameHost(record.canonicalName(), gateway.fqdn())) {
+                        return dnsZone;
+                    }
+                    System.out.printf("Updating dns with CNAME ssl.%s to %s%n", domainName, gateway.fqdn());
+                    DnsZone.Update update = dnsZone.update();
+                    if (record != null) {
+                        // the gateway was recreated with another fqdn, so the record points at a host that is gone
+                        update = update.updateCNameRecordSet("ssl").withAlias(gateway.fqdn()).parent();
+                    } else {
+                        update = update.withCNameRecordSet("ssl", gateway.fqdn());
+                    }
+                    DnsZone updated = update.apply();
+                    // custom domain validation fails on stale DNS, so bind only once every name server serves the record
+                    new DnsPropagationWaiter().await(updated.nameServers(), "ssl." + domainName, gateway.fqdn());
+                    return updated;
+                },
+                    (DnsZone dnsZone) -> id(dnsZone.id()),
+                    (values, results) -> azureResourceManager.dnsZones().getById(values.get("id")),
+                    "domain", "apps")
+
+                .step("vault", results -> {
+                    Vault existing = reconcile
+                        ? existing(() -> azureResourceManager.vaults().getByResourceGroup(rgName, vaultName)) : null;
+                    if (existing != null) {
+                        return existing;
+                    }
+                    return createVault(azureResourceManager, vaultName, region, rgName, clientId);
+                },
+                    (Vault vault) -> id(vault.id()),
+                    (values, results) -> azureResourceManager.vaults().getById(values.get("id")),
+                    "resourceGroup")
+
+                // Please use a trusted certificate for actual use
+                // The certificate is imported in the step that generates it, so that only its name and thumbprint
+                // are journaled; the key and its password stay in the process and in the vault.
+                .step("certificate", results -> {
+                    Vault vault = results.get("vault");
+                    allowAllSSL();
+
+                    KeyVaultCertificateWithPolicy existing = reconcile
+                        ? existing(() -> certificateClient(vault).getCertificate(certName)) : null;
+                    // a disabled or expiring certificate is replaced by a new version under the same name
+                    if (existing != null && Boolean.TRUE.equals(existing.getProperties().isEnabled())
+                        && existing.getProperties().getExpiresOn() != null
+                        && existing.getProperties().getExpiresOn().isAfter(OffsetDateTime.now().plusDays(7))) {
+                        return new VaultCertificate(certName, VaultCertificate.hex(existing.getProperties().getX509Thumbprint()));
+                    }
+
+                    System.out.printf("Generate a self-signed certificate for ssl.%s %n", domainName);
+                    String cerPassword = Utils.password();
+                    CertificateGenerator.GeneratedCertificate generated = new CertificateGenerator()
+                        .generate(domainName, cerPassword, "ssl." + domainName, "ssl." + domainName);
+                    String thumbprint = generated.sha1Thumbprint();
+                    System.out.printf("Certificate Thumbprint: %s%n", thumbprint);
+
+                    System.out.printf("Uploading certificate to %s in key vault ...%n", certName);
+                    certificateClient(vault).importCertificate(
+                        new ImportCertificateOptions(certName, generated.pfx())
+                            .setPassword(cerPassword)
+                            .setEnabled(true)
+                    );
+                    return new VaultCertificate(certName, thumbprint);
+                },
+                    (VaultCertificate certificate) -> certificate.checkpoint(),
+                    (values, results) -> {
+                        allowAllSSL();
+                        return VaultCertificate.rehydrate(certificateClient(results.get("vault")), values);
+                    },
+                    "vault")
+
+                //============================================================
+                // Update Certificate and Custom Domain for Spring Cloud
+
+                .step("serviceCertificate", results -> {
+                    SpringService service = results.get("service");
+                    Vault vault = results.get("vault");
+                    VaultCertificate certificate = results.get("certificate");
+
+                    SpringServiceCertificate existing = reconcile
+                        ? existing(() -> service.certificates().getByName(certName)) : null;
+                    // the service loads the vault certificate when it is added, so a replaced version is added again
+                    if (existing != null && existing.properties() instanceof KeyVaultCertificateProperties) {
+                        KeyVaultCertificateProperties properties = (KeyVaultCertificateProperties) existing.properties();
+                        if (vault.vaultUri().equals(properties.vaultUri()) && certName.equals(properties.keyVaultCertName())
+                            && certificate.thumbprint.equalsIgnoreCase(properties.thumbprint())) {
+                            return service;
+                        }
+                    }
+
+                    System.out.println("Updating Spring Cloud Service with certificate ...");
+                    return service.update()
+                        .withCertificate(certName, vault.vaultUri(), certName)
+                        .apply();
+                },
+                    (SpringService service) -> id(service.id()),
+                    (values, results) -> results.get("service"),
+                    "service", "certificate")
+
+                .step("customDomain", results -> {
+                    SpringApp gateway = results.get("apps");
+                    VaultCertificate certificate = results.get("certificate");
+
+                    SpringAppDomain existing = reconcile
+                        ? existing(() -> gateway.customDomains().getByName("ssl." + domainName)) : null;
+                    if (existing != null && existing.properties() != null
+                        && certificate.thumbprint.equalsIgnoreCase(existing.properties().thumbprint())) {
+                        return gateway;
+                    }
+
+                    System.out.printf("Updating Spring Cloud App with domain ssl.%s ...%n", domainName);
+                    return gateway.update()
+                        .withCustomDomain(String.format("ssl.%s", domainName), certificate.thumbprint)
+                        .apply();
+                }, "apps", "dnsRecord", "serviceCertificate");
+
+            // -Dspring.tenantDomains=tenant1,tenant2,... additionally onboards <tenant>.<domain> in bulk
+            String tenantDomains = System.getProperty("spring.tenantDomains");
+            if (tenantDomains != null && !tenantDomains.isEmpty()) {
+                workflow.step("tenantDomains", results -> {
+                    List<String> hostnames = new ArrayList<>();
+                    for (String tenant : tenantDomains.split(",")) {
+                        hostnames.add(tenant.trim() + "." + domainName);
+                    }
+                    return new CustomDomainOnboarder(results.get("service"), results.get("apps"),
+                        results.get("dnsRecord"), results.get("vault"), 8, 4).onboard(hostnames);
+                }, "customDomain");
+            }
+
+            workflow.run();
+
+            System.out.printf("Successfully expose domain ssl.%s%n", domainName);
+
+            succeeded = true;
+            return true;
+        } finally {
+            if (pool != null) {
+                try {
+                    if (lease.get() != null && journal != null && !succeeded) {
+                        // the journal resumes with the leased service, so wiping it would lose the apps built so far
+                        System.out.printf("Keeping lease %s on %s until %s to resume%n", lease.get().id(),
+                            lease.get().service().name(), lease.get().expiresAt());
+                    } else if (lease.get() != null) {
+                        pool.release(lease.get());
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    pool.close();
+                }
+            }
+            if (journal != null && !succeeded) {
+                System.out.printf("Keeping resource group %s, rerun with -Dprovisioning.journal=%s to resume%n",
+                    rgName, journal.file());
+            } else if (reconcile) {
+                System.out.printf("Keeping resource group %s, rerun with -Dsample.reconcile=true -Dprovisioning.journal=%s "
+                    + "to reconcile%n", rgName, journal.file());
+            } else {
+                try {
+                    if (journal != null) {
+                        journal.delete();
+                    }
+                    System.out.println("Delete Resource Group: " + rgName);
+                    TeardownQueue teardown = new TeardownQueue(azureResourceManager, 4, 3);
+                    teardown.enqueue(rgName);
+                    await(teardown);
+                } catch (Exception g) {
+                    g.printStackTrace();
                 }
-                connection.disconnect();
             }
+        }
+    }
 
-            //============================================================
-            // Create spring cloud app: gateway
+    /**
+     * Main entry point.
+     * @param args the parameters
+     */
+    public static void main(String[] args) {
+        try {
+            //=============================================================
+            // Authenticate
 
-            System.out.printf("Creating spring cloud app gateway in resource group %s ...%n", rgName);
-            SpringApp gateway = service.apps().define("gateway")
-                .defineActiveDeployment("default")
-                    .withSourceCodeTarGzFile(gzFile)
-                    .withTargetModule("gateway")
-                    .attach()
-                .withDefaultPublicEndpoint()
-                .withHttpsOnly()
-                .create();
+            final AzureProfile profile = new AzureProfile(AzureEnvironment.AZURE);
+            final TokenCredential credential = new DefaultAzureCredentialBuilder()
+                .authorityHost(profile.getEnvironment().getActiveDirectoryEndpoint())
+                .build();
 
-            System.out.println("Created spring cloud service gateway");
-            Utils.print(gateway);
+            AzureResourceManager azureResourceManager = AzureResourceManager
+                .configure()
+                .withLogLevel(HttpLogDetailLevel.BASIC)
+                // retries are made by the adaptive policy, which runs where the retry policy would
+                .withRetryPolicy(new RetryPolicy(new FixedDelay(0, Duration.ofSeconds(1))))
+                .withPolicy(AdaptiveRetryPolicy.shared())
+                .withPolicy(ArmReadCachePolicy.shared())
+                .withPolicy(SingleFlightPolicy.shared())
+                .withPolicy(ArmThrottlingPolicy.shared())
+                .authenticate(credential, profile)
+                .withDefaultSubscription();
 
-            //============================================================
-            // Create spring cloud app: auth-service
+            // Print selected subscription
+            System.out.println("Selected subscription: " + azureResourceManager.subscriptionId());
 
-            System.out.printf("Creating spring cloud app auth-service in resource group %s ...%n", rgName);
-            SpringApp authService = service.apps().define("auth-service")
-                .defineActiveDeployment("default")
-                    .withSourceCodeTarGzFile(gzFile)
-                    .withTargetModule("auth-service")
-                    .attach()
-                .create();
+            // -Dfleet.manifest=<file> provisions the fleet described in the manifest instead of running the sample,
+            // add -Dfleet.reconcile=true to only create or update what differs from the manifest
+            String fleetManifest = System.getProperty("fleet.manifest");
+            if (fleetManifest != null) {
+                FleetProvisioner provisioner = new FleetProvisioner(azureResourceManager);
+                if (Boolean.getBoolean("fleet.reconcile")) {
+                    provisioner.reconcile(FleetManifest.load(new File(fleetManifest)));
+                } else {
+                    provisioner.provision(FleetManifest.load(new File(fleetManifest)));
+                }
+                return;
+            }
 
-            System.out.println("Created spring cloud service auth-service");
-            Utils.print(authService);
+            // -Dtopology.template=<file> deploys the sample as a single ARM template written to the file,
+            // add -Dtopology.dryRun=true to only write the template
+            String topologyTemplate = System.getProperty("topology.template");
+            if (topologyTemplate != null) {
+                runTemplateSample(azureResourceManager, Configuration.getGlobalConfiguration().get(Configuration.PROPERTY_AZURE_CLIENT_ID),
+                    new File(topologyTemplate), Boolean.getBoolean("topology.dryRun"));
+                return;
+            }
 
-            //============================================================
-            // Create spring cloud app: account-service
+            runSample(azureResourceManager, Configuration.getGlobalConfiguration().get(Configuration.PROPERTY_AZURE_CLIENT_ID));
 
-            System.out.printf("Creating spring cloud app account-service in resource group %s ...%n", rgName);
-            SpringApp accountService = service.apps().define("account-service")
-                .defineActiveDeployment("default")
-                    .withSourceCodeTarGzFile(gzFile)
-                    .withTargetModule("account-service")
-                    .attach()
-                .create();
+            SingleFlightPolicy singleFlight = SingleFlightPolicy.shared();
+            System.out.printf("Shared in-flight GETs saved %d of %d calls (%d bytes)%n",
+                singleFlight.saved(), singleFlight.requests(), singleFlight.bytesSaved());
+            ArmReadCachePolicy readCache = ArmReadCachePolicy.shared();
+            System.out.printf("ARM read cache: %d hits, %d revalidated, %d misses, %d invalidated, %d evicted%n",
+                readCache.hits(), readCache.revalidations(), readCache.misses(), readCache.invalidations(), readCache.evictions());
+            AdaptiveRetryPolicy retry = AdaptiveRetryPolicy.shared();
+            System.out.printf("Adaptive retry: %d retries, %d denied by budget, %d failed fast%n",
+                retry.retries(), retry.budgetExhausted(), retry.shortCircuited());
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
 
-            System.out.println("Created spring cloud service account-service");
-            Utils.print(accountService);
+    public static void extraTarGzSource(File folder, URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.connect();
+        try (InputStream inputStream = connection.getInputStream()) {
+            new TarGzExtractor().extract(folder, inputStream);
+        } finally {
+            connection.disconnect();
+        }
+    }
 
-            //============================================================
-            // Create App Service Domain and Certificate
+    /**
+     * Extracts only the entries under the prefix, e.g. one module, from the cached and indexed copy of the archive.
+     * @param folder the target folder
+     * @param url the archive URL
+     * @param prefix the name prefix of the entries to extract
+     * @throws IOException if the archive cannot be fetched or a file cannot be written
+     */
+    public static void extraTarGzSource(File folder, URL url, String prefix) throws IOException {
+        TarGzIndex index = ArtifactCache.getDefault().fetchIndex(url);
+        long start = System.nanoTime();
+        int files = index.extract(prefix, folder);
+        System.out.printf("Extracted %d files under %s to %s in %d ms%n", files, prefix, folder, (System.nanoTime() - start) / 1_000_000);
+    }
 
-            System.out.println("Purchasing a domain " + domainName + "...");
+    /**
+     * Runs the sample topology as a single ARM template deployment instead of one fluent call per resource.
+     * With a dry run, the template is only written to the file for inspection and nothing is created.
+     * @param azureResourceManager instance of the azure client
+     * @param clientId the aad client id in azure instance
+     * @param templateFile the file to write the template to
+     * @param dryRun whether to only write the template
+     * @return true if sample runs successfully
+     */
+    public static boolean runTemplateSample(AzureResourceManager azureResourceManager, String clientId,
+                                            File templateFile, boolean dryRun) throws IOException {
+        final Map<String, String> names = resourceNames(azureResourceManager, null);
+        final String rgName = names.get("rg");
+        final String domainName = names.get("domain");
+        final Region region = Region.US_EAST;
 
-            AppServiceDomain domain = azureResourceManager.appServiceDomains().define(domainName)
+        TopologyTemplate template = new TopologyTemplate(region, names.get("service"), names.get("vault"),
+            names.get("cert"), domainName)
+            .withApp("gateway", true, true)
+            .withApp("auth-service", false, false)
+            .withApp("account-service", false, false)
+            .withCustomDomain("gateway", "ssl");
+        template.writeTo(templateFile);
+        if (dryRun) {
+            return true;
+        }
+
+        try {
+            azureResourceManager.resourceGroups().define(rgName)
+                .withRegion(region)
+                .create();
+            TarGzIndex source = ArtifactCache.getDefault().fetchIndex(new URL(PIGGYMETRICS_TAR_GZ_URL));
+
+            // the domain purchase needs a legal agreement consent and is not part of the template
+            System.out.println("Purchasing a domain " + domainName + "...");
+            azureResourceManager.appServiceDomains().define(domainName)
                 .withExistingResourceGroup(rgName)
                 .defineRegistrantContact()
                     .withFirstName("Jon")
@@ -181,86 +613,38 @@ public class ManageSpringCloud {
                 .withDomainPrivacyEnabled(true)
                 .withAutoRenewEnabled(false)
                 .create();
-            System.out.println("Purchased domain " + domain.name());
-            Utils.print(domain);
-
-            DnsZone dnsZone = azureResourceManager.dnsZones().getById(domain.dnsZoneId());
-            gateway.refresh();
 
-            System.out.printf("Updating dns with CNAME ssl.%s to %s%n", domainName, gateway.fqdn());
-            dnsZone.update()
-                .withCNameRecordSet("ssl", gateway.fqdn())
-                .apply();
-
-            // Please use a trusted certificate for actual use
-            System.out.printf("Generate a self-signed certificate for ssl.%s %n", domainName);
-            allowAllSSL();
+            // the service only takes key vault certificates, which ARM cannot import, so the vault is set up first
+            Vault vault = createVault(azureResourceManager, names.get("vault"), region, rgName, clientId);
             String cerPassword = Utils.password();
-            String cerPath = ManageSpringCloud.class.getResource("/").getPath() + domainName + ".cer";
-            String pfxPath = ManageSpringCloud.class.getResource("/").getPath() + domainName + ".pfx";
-            Utils.createCertificate(cerPath, pfxPath, domainName, cerPassword, "ssl." + domainName, "ssl." + domainName);
-
-            byte[] certificate = readAllBytes(new FileInputStream(pfxPath));
-
-            KeyStore store = KeyStore.getInstance("PKCS12");
-            store.load(new ByteArrayInputStream(certificate), cerPassword.toCharArray());
-            String alias = Collections.list(store.aliases()).get(0);
-            String thumbprint = DatatypeConverter.printHexBinary(MessageDigest.getInstance("SHA-1").digest(store.getCertificate(alias).getEncoded()));
-
-            System.out.printf("Certificate Thumbprint: %s%n", thumbprint);
-
-            System.out.printf("Creating key vault %s with access from %s, %s%n", vaultName, clientId, SPRING_CLOUD_SERVICE_PRINCIPAL);
-            Vault vault = azureResourceManager.vaults().define(vaultName)
-                .withRegion(region)
-                .withExistingResourceGroup(rgName)
-                .defineAccessPolicy()
-                    .forServicePrincipal(clientId)
-                    .allowSecretAllPermissions()
-                    .allowCertificateAllPermissions()
-                    .attach()
-                .defineAccessPolicy()
-                    .forServicePrincipal(SPRING_CLOUD_SERVICE_PRINCIPAL)
-                    .allowCertificatePermissions(CertificatePermissions.GET, CertificatePermissions.LIST)
-                    .allowSecretPermissions(SecretPermissions.GET, SecretPermissions.LIST)
-                    .attach()
-                .create();
-            System.out.printf("Created key vault %s%n", vault.name());
-            Utils.print(vault);
-
-            // upload certificate
-            CertificateClient certificateClient = new CertificateClientBuilder()
-                .vaultUrl(vault.vaultUri())
-                .pipeline(service.manager().httpPipeline())
-                .buildClient();
-
-            System.out.printf("Uploading certificate to %s in key vault ...%n", certName);
-            certificateClient.importCertificate(
-                new ImportCertificateOptions(certName, certificate)
+            CertificateGenerator.GeneratedCertificate certificate = new CertificateGenerator()
+                .generate(domainName, cerPassword, "ssl." + domainName, "ssl." + domainName);
+            System.out.printf("Uploading certificate to %s in key vault ...%n", names.get("cert"));
+            certificateClient(vault).importCertificate(
+                new ImportCertificateOptions(names.get("cert"), certificate.pfx())
                     .setPassword(cerPassword)
                     .setEnabled(true)
             );
-
-            //============================================================
-            // Update Certificate and Custom Domain for Spring Cloud
-            System.out.println("Updating Spring Cloud Service with certificate ...");
-            service.update()
-                .withCertificate(certName, vault.vaultUri(), certName)
-                .apply();
-
-            System.out.printf("Updating Spring Cloud App with domain ssl.%s ...%n", domainName);
-            gateway.update()
-                .withCustomDomain(String.format("ssl.%s", domainName), thumbprint)
-                .apply();
+            Map<String, String> parameters = new LinkedHashMap<>();
+            parameters.put("certificateThumbprint", certificate.sha1Thumbprint());
+            template.deploy(azureResourceManager, rgName, "topology", parameters);
+
+            // the source upload needs the apps to exist, so the code is deployed after the template
+            SpringService service = azureResourceManager.springServices().getByResourceGroup(rgName, names.get("service"));
+            Map<String, SpringApp> apps = new LinkedHashMap<>();
+            for (SpringApp app : service.apps().list()) {
+                apps.put(app.name(), app);
+            }
+            deploySources(apps, source);
 
             System.out.printf("Successfully expose domain ssl.%s%n", domainName);
-
             return true;
         } finally {
             try {
                 System.out.println("Delete Resource Group: " + rgName);
-                azureResourceManager.resourceGroups().beginDeleteByName(rgName);
-            } catch (NullPointerException npe) {
-                System.out.println("Did not create any resources in Azure. No clean up is necessary");
+                TeardownQueue teardown = new TeardownQueue(azureResourceManager, 4, 3);
+                teardown.enqueue(rgName);
+                await(teardown);
             } catch (Exception g) {
                 g.printStackTrace();
             }
@@ -268,73 +652,87 @@ public class ManageSpringCloud {
     }
 
     /**
-     * Main entry point.
-     * @param args the parameters
+     * Uploads each app only the modules it builds, each bundle once, and deploys them concurrently.
      */
-    public static void main(String[] args) {
-        try {
-            //=============================================================
-            // Authenticate
-
-            final AzureProfile profile = new AzureProfile(AzureEnvironment.AZURE);
-            final TokenCredential credential = new DefaultAzureCredentialBuilder()
-                .authorityHost(profile.getEnvironment().getActiveDirectoryEndpoint())
-                .build();
-
-            AzureResourceManager azureResourceManager = AzureResourceManager
-                .configure()
-                .withLogLevel(HttpLogDetailLevel.BASIC)
-                .authenticate(credential, profile)
-                .withDefaultSubscription();
-
-            // Print selected subscription
-            System.out.println("Selected subscription: " + azureResourceManager.subscriptionId());
+    private static void deploySources(Map<String, SpringApp> apps, TarGzIndex source) throws IOException {
+        Map<String, File> bundles = ModuleSourceBundler.bundle(source, apps.keySet(), new File("piggymetrics-modules"));
+        Map<String, String> relativePaths = Flux.fromIterable(apps.values())
+            .flatMap(app -> SharedSourceUpload.uploadAsync(app, bundles.get(app.name()))
+                .map(relativePath -> Tuples.of(app.name(), relativePath)))
+            .collectMap(Tuple2::getT1, Tuple2::getT2)
+            .block();
+
+        Map<String, Creatable<SpringAppDeployment>> deploymentDefinitions = new LinkedHashMap<>();
+        for (SpringApp app : apps.values()) {
+            // replaces the placeholder deployment the app was created with
+            deploymentDefinitions.put(app.name(), SharedSourceUpload.withTargetModule(
+                app.deployments().define("default")
+                    .withExistingSource(UserSourceType.SOURCE, relativePaths.get(app.name()))
+                    .withActivation(),
+                app.name()));
+        }
+        ConcurrentAppProvisioner.createAll("spring cloud app deployment", deploymentDefinitions);
 
-            runSample(azureResourceManager, Configuration.getGlobalConfiguration().get(Configuration.PROPERTY_AZURE_CLIENT_ID));
-        } catch (Exception e) {
-            System.out.println(e.getMessage());
-            e.printStackTrace();
+        for (SpringApp app : apps.values()) {
+            app.refresh();
+            Utils.print(app);
         }
     }
 
-    public static void extraTarGzSource(File folder, URL url) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.connect();
-        try (TarArchiveInputStream inputStream = new TarArchiveInputStream(new GzipCompressorInputStream(connection.getInputStream()))) {
-            TarArchiveEntry entry;
-            while ((entry = inputStream.getNextTarEntry()) != null) {
-                if (entry.isDirectory()) {
-                    continue;
-                }
-                File file = new File(folder, entry.getName());
-                File parent = file.getParentFile();
-                if (parent.exists() || parent.mkdirs()) {
-                    try (OutputStream outputStream = new FileOutputStream(file)) {
-                        IOUtils.copy(inputStream, outputStream);
-                    }
-                } else {
-                    throw new IllegalStateException("Cannot create directory: " + parent.getAbsolutePath());
-                }
+    /**
+     * Generates the resource names of a run, or reads them from the journal of the run being resumed.
+     */
+    private static Map<String, String> resourceNames(AzureResourceManager azureResourceManager, ProvisioningJournal journal) throws IOException {
+        Map<String, String> names = journal == null ? null : journal.completed("names");
+        if (names == null) {
+            names = new LinkedHashMap<>();
+            names.put("rg", Utils.randomResourceName(azureResourceManager, "rg", 24));
+            names.put("service", Utils.randomResourceName(azureResourceManager, "service", 24));
+            names.put("domain", Utils.randomResourceName(azureResourceManager, "jsdkdemo-", 20) + ".com");
+            names.put("vault", Utils.randomResourceName(azureResourceManager, "vault", 15));
+            names.put("cert", Utils.randomResourceName(azureResourceManager, "cert", 15));
+            if (journal != null) {
+                journal.record("names", names);
             }
-        } finally {
-            connection.disconnect();
         }
+        return names;
     }
 
-    private static byte[] readAllBytes(InputStream inputStream) throws IOException {
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            byte[] data = new byte[4096];
-            while (true) {
-                int size = inputStream.read(data);
-                if (size > 0) {
-                    outputStream.write(data, 0, size);
-                } else {
-                    return outputStream.toByteArray();
-                }
+    /**
+     * Returns once the deletions are accepted, or with -Dteardown.await=true once they finished, each one reported
+     * with its latency as it completes.
+     */
+    private static void await(TeardownQueue teardown) {
+        if (Boolean.getBoolean("teardown.await")) {
+            teardown.awaitAll();
+        } else {
+            teardown.awaitAccepted();
+        }
+    }
+
+    /**
+     * Reads a resource, or returns null if it does not exist.
+     */
+    private static <T> T existing(Supplier<T> read) {
+        try {
+            return read.get();
+        } catch (HttpResponseException e) {
+            if (e.getResponse() != null && e.getResponse().getStatusCode() == 404) {
+                return null;
             }
+            throw e;
         }
     }
 
+    private static boolean sameHost(String name, String other) {
+        return name != null && other != null
+            && name.replaceAll("\\.$", "").equalsIgnoreCase(other.replaceAll("\\.$", ""));
+    }
+
+    private static Map<String, String> id(String id) {
+        return Collections.singletonMap("id", id);
+    }
+
     private static void allowAllSSL() throws NoSuchAlgorithmException, KeyManagementException {
         TrustManager[] trustAllCerts = new TrustManager[]{
             new X509TrustManager() {
@@ -353,4 +751,79 @@ public class ManageSpringCloud {
         sslContext.init(null, trustAllCerts, new SecureRandom());
         HttpsURLConnection.setDefaultSSLSocketFactory(sslContext.getSocketFactory());
     }
+
+    private static Map<String, String> leaseCheckpoint(String serviceId, String leaseId) {
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put("id", serviceId);
+        values.put("lease", leaseId);
+        return values;
+    }
+
+    private static Vault createVault(AzureResourceManager azureResourceManager, String vaultName, Region region,
+                                     String rgName, String clientId) {
+        System.out.printf("Creating key vault %s with access from %s, %s%n", vaultName, clientId, SPRING_CLOUD_SERVICE_PRINCIPAL);
+        Vault vault = azureResourceManager.vaults().define(vaultName)
+            .withRegion(region)
+            .withExistingResourceGroup(rgName)
+            .defineAccessPolicy()
+                .forServicePrincipal(clientId)
+                .allowSecretAllPermissions()
+                .allowCertificateAllPermissions()
+                .attach()
+            .defineAccessPolicy()
+                .forServicePrincipal(SPRING_CLOUD_SERVICE_PRINCIPAL)
+                .allowCertificatePermissions(CertificatePermissions.GET, CertificatePermissions.LIST)
+                .allowSecretPermissions(SecretPermissions.GET, SecretPermissions.LIST)
+                .attach()
+            .create();
+        System.out.printf("Created key vault %s%n", vault.name());
+        Utils.print(vault);
+        return vault;
+    }
+
+    private static CertificateClient certificateClient(Vault vault) {
+        return new CertificateClientBuilder()
+            .vaultUrl(vault.vaultUri())
+            .pipeline(vault.manager().httpPipeline())
+            .buildClient();
+    }
+
+    /**
+     * A certificate imported into the key vault, journaled by name and thumbprint only.
+     */
+    private static final class VaultCertificate {
+        private final String name;
+        private final String thumbprint;
+
+        private VaultCertificate(String name, String thumbprint) {
+            this.name = name;
+            this.thumbprint = thumbprint;
+        }
+
+        private Map<String, String> checkpoint() {
+            Map<String, String> values = new LinkedHashMap<>();
+            values.put("name", name);
+            values.put("thumbprint", thumbprint);
+            return values;
+        }
+
+        private static VaultCertificate rehydrate(CertificateClient certificateClient, Map<String, String> values) {
+            KeyVaultCertificateWithPolicy certificate = certificateClient.getCertificate(values.get("name"));
+            String thumbprint = hex(certificate.getProperties().getX509Thumbprint());
+            // the custom domain binds by thumbprint, so a certificate replaced in the vault must not be picked up
+            if (!thumbprint.equalsIgnoreCase(values.get("thumbprint"))) {
+                throw new IllegalStateException(String.format("Certificate %s in the vault has thumbprint %s, "
+                    + "the journal recorded %s", certificate.getName(), thumbprint, values.get("thumbprint")));
+            }
+            return new VaultCertificate(certificate.getName(), thumbprint);
+        }
+
+        private static String hex(byte[] bytes) {
+            StringBuilder hex = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                hex.append(String.format("%02X", b));
+            }
+            return hex.toString();
+        }
+    }
 }
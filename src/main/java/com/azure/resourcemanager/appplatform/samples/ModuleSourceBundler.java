@@ -0,0 +1,274 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits a multi-module maven source archive into one slimmed tar.gz per target module.
+ * <p>
+ * Each bundle contains the files at the root of the project, the target module and the sibling modules it
+ * depends on (transitively), with the {@code <modules>} section of the parent pom reduced to that closure.
+ * The source archive is read through its {@link TarGzIndex}: once for the poms, and once for the entries of the
+ * bundled modules, which are streamed into all bundles. Modules no bundle needs are skipped without inflating them.
+ */
+public final class ModuleSourceBundler {
+
+    private static final String POM = "pom.xml";
+    private static final Pattern MODULES_SECTION = Pattern.compile("<modules>.*?</modules>", Pattern.DOTALL);
+
+    private ModuleSourceBundler() {
+    }
+
+    /**
+     * Creates a slimmed archive for each target module.
+     *
+     * @param archive the index of the tar.gz archive of the whole multi-module project
+     * @param targetModules the modules to bundle, as listed in the parent pom
+     * @param outputFolder the folder to write the bundles to
+     * @return the bundle of each target module, keyed by module
+     * @throws IOException if the archive cannot be read or a bundle cannot be written
+     */
+    public static Map<String, File> bundle(TarGzIndex archive, Collection<String> targetModules, File outputFolder) throws IOException {
+        if (!outputFolder.exists() && !outputFolder.mkdirs()) {
+            throw new IllegalStateException("Cannot create directory: " + outputFolder.getAbsolutePath());
+        }
+
+        Map<String, byte[]> poms = readPoms(archive);
+        String root = poms.keySet().stream()
+            .min((a, b) -> Integer.compare(a.length(), b.length()))
+            .map(name -> name.substring(0, name.length() - POM.length()))
+            .orElseThrow(() -> new IllegalStateException("No pom.xml found in " + archive.archive().getName()));
+        byte[] parentPom = poms.get(root + POM);
+        List<String> modules = childElements(parse(parentPom), "modules", "module");
+
+        // module directory -> artifactId, and artifactId -> sibling artifactIds it references
+        Map<String, String> artifactIds = new HashMap<>();
+        Map<String, Set<String>> references = new HashMap<>();
+        for (String module : modules) {
+            byte[] pom = poms.get(root + module + "/" + POM);
+            if (pom == null) {
+                throw new IllegalStateException("Module " + module + " has no pom.xml in " + archive.archive().getName());
+            }
+            Document document = parse(pom);
+            String artifactId = directChildText(document.getDocumentElement(), "artifactId");
+            artifactIds.put(module, artifactId);
+            Set<String> referenced = new LinkedHashSet<>(childElements(document, "dependency", "artifactId"));
+            referenced.addAll(childElements(document, "parent", "artifactId"));
+            references.put(artifactId, referenced);
+        }
+        Map<String, String> modulesByArtifactId = new HashMap<>();
+        artifactIds.forEach((module, artifactId) -> modulesByArtifactId.put(artifactId, module));
+
+        Map<String, Bundle> bundles = new LinkedHashMap<>();
+        try {
+            for (String target : targetModules) {
+                if (!artifactIds.containsKey(target)) {
+                    throw new IllegalArgumentException("Module " + target + " is not listed in " + root + POM);
+                }
+                Set<String> closure = closure(target, artifactIds, references, modulesByArtifactId);
+                File file = new File(outputFolder, target + ".tar.gz");
+                bundles.put(target, new Bundle(closure, file, restrictModules(parentPom, closure)));
+            }
+
+            copyEntries(archive, root, modules, bundles.values());
+        } finally {
+            for (Bundle bundle : bundles.values()) {
+                bundle.output.close();
+            }
+        }
+
+        Map<String, File> files = new LinkedHashMap<>();
+        for (Map.Entry<String, Bundle> entry : bundles.entrySet()) {
+            File file = entry.getValue().file;
+            System.out.printf("Bundled module %s with %s: %d of %d bytes%n",
+                entry.getKey(), entry.getValue().modules, file.length(), archive.archive().length());
+            files.put(entry.getKey(), file);
+        }
+        return files;
+    }
+
+    private static Map<String, byte[]> readPoms(TarGzIndex archive) throws IOException {
+        List<TarGzIndex.Entry> entries = new ArrayList<>();
+        for (TarGzIndex.Entry entry : archive.entries("")) {
+            String name = normalize(entry.name());
+            if (entry.isFile() && (name.equals(POM) || name.endsWith("/" + POM))) {
+                entries.add(entry);
+            }
+        }
+        Map<String, byte[]> poms = new HashMap<>();
+        archive.read(entries, (entry, data) -> poms.put(normalize(entry.name()), IOUtils.toByteArray(data)));
+        return poms;
+    }
+
+    private static void copyEntries(TarGzIndex archive, String root, List<String> modules, Collection<Bundle> bundles) throws IOException {
+        Set<String> bundled = new LinkedHashSet<>();
+        for (Bundle bundle : bundles) {
+            bundled.addAll(bundle.modules);
+        }
+        List<TarGzIndex.Entry> entries = new ArrayList<>();
+        for (TarGzIndex.Entry entry : archive.entries("")) {
+            String name = normalize(entry.name());
+            if (name.startsWith(root)) {
+                String module = owningModule(name.substring(root.length()), modules);
+                if (module == null || bundled.contains(module)) {
+                    entries.add(entry);
+                }
+            }
+        }
+
+        archive.read(entries, (entry, data) -> {
+            String name = normalize(entry.name());
+            String module = owningModule(name.substring(root.length()), modules);
+            byte[] content = entry.isFile() ? IOUtils.toByteArray(data) : null;
+            for (Bundle bundle : bundles) {
+                if (module == null || bundle.modules.contains(module)) {
+                    byte[] bytes = name.equals(root + POM) ? bundle.parentPom : content;
+                    bundle.write(entry, bytes);
+                }
+            }
+        });
+    }
+
+    private static Set<String> closure(String target, Map<String, String> artifactIds,
+                                       Map<String, Set<String>> references, Map<String, String> modulesByArtifactId) {
+        Set<String> closure = new LinkedHashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.add(target);
+        while (!pending.isEmpty()) {
+            String module = pending.poll();
+            if (closure.add(module)) {
+                for (String artifactId : references.get(artifactIds.get(module))) {
+                    String dependency = modulesByArtifactId.get(artifactId);
+                    if (dependency != null) {
+                        pending.add(dependency);
+                    }
+                }
+            }
+        }
+        return closure;
+    }
+
+    private static byte[] restrictModules(byte[] parentPom, Set<String> modules) {
+        StringBuilder section = new StringBuilder("<modules>");
+        for (String module : modules) {
+            section.append("\n        <module>").append(module).append("</module>");
+        }
+        section.append("\n    </modules>");
+        Matcher matcher = MODULES_SECTION.matcher(new String(parentPom, StandardCharsets.UTF_8));
+        return matcher.replaceFirst(Matcher.quoteReplacement(section.toString())).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String owningModule(String relativeName, List<String> modules) {
+        for (String module : modules) {
+            if (relativeName.equals(module) || relativeName.startsWith(module + "/")) {
+                return module;
+            }
+        }
+        return null;
+    }
+
+    private static String normalize(String name) {
+        return name.startsWith("./") ? name.substring(2) : name;
+    }
+
+    private static Document parse(byte[] pom) {
+        try (InputStream inputStream = new ByteArrayInputStream(pom)) {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            return factory.newDocumentBuilder().parse(inputStream);
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            throw new IllegalStateException("Cannot parse pom.xml", e);
+        }
+    }
+
+    private static List<String> childElements(Document document, String parentTag, String childTag) {
+        List<String> values = new ArrayList<>();
+        NodeList parents = document.getElementsByTagName(parentTag);
+        for (int i = 0; i < parents.getLength(); i++) {
+            NodeList children = parents.item(i).getChildNodes();
+            for (int j = 0; j < children.getLength(); j++) {
+                Node child = children.item(j);
+                if (child.getNodeType() == Node.ELEMENT_NODE && childTag.equals(child.getNodeName())) {
+                    values.add(child.getTextContent().trim());
+                }
+            }
+        }
+        return values;
+    }
+
+    private static String directChildText(Element element, String tag) {
+        NodeList children = element.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node child = children.item(i);
+            if (child.getNodeType() == Node.ELEMENT_NODE && tag.equals(child.getNodeName())) {
+                return child.getTextContent().trim();
+            }
+        }
+        return null;
+    }
+
+    private static final class Bundle {
+        private final Set<String> modules;
+        private final File file;
+        private final byte[] parentPom;
+        private final TarArchiveOutputStream output;
+
+        private Bundle(Set<String> modules, File file, byte[] parentPom) throws IOException {
+            this.modules = modules;
+            this.file = file;
+            this.parentPom = parentPom;
+            this.output = new TarArchiveOutputStream(new GzipCompressorOutputStream(new FileOutputStream(file)));
+            this.output.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            this.output.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+        }
+
+        private void write(TarGzIndex.Entry source, byte[] content) throws IOException {
+            TarArchiveEntry entry = new TarArchiveEntry(source.name(), source.linkFlag());
+            entry.setMode(source.mode());
+            entry.setModTime(new Date(source.lastModified()));
+            if (!source.linkName().isEmpty()) {
+                entry.setLinkName(source.linkName());
+            }
+            if (content != null) {
+                entry.setSize(content.length);
+            }
+            output.putArchiveEntry(entry);
+            if (content != null) {
+                output.write(content);
+            }
+            output.closeArchiveEntry();
+        }
+    }
+}
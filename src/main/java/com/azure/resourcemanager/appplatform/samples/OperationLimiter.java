@@ -0,0 +1,84 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Non-blocking limit on the number of asynchronous operations in flight.
+ * <p>
+ * Unlike {@code flatMap(mapper, concurrency)}, which only bounds a single pipeline, one limiter can be shared by
+ * every pipeline that issues the same kind of operation. Operations over the limit wait in FIFO order without
+ * holding a thread.
+ */
+public final class OperationLimiter {
+
+    private final String name;
+    private final int limit;
+    private final Queue<Runnable> waiting = new ArrayDeque<>();
+    private int active;
+
+    /**
+     * Creates a limiter.
+     *
+     * @param name the name of the limited resource type, used in progress output
+     * @param limit the maximum number of operations in flight
+     */
+    public OperationLimiter(String name, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Concurrency limit of " + name + " must be positive: " + limit);
+        }
+        this.name = name;
+        this.limit = limit;
+    }
+
+    /**
+     * Wraps an operation so that it only starts when a slot is free, and frees the slot when it terminates.
+     *
+     * @param operation the operation, subscribed once a slot is acquired
+     * @param <T> type of the operation result
+     * @return the limited operation
+     */
+    public <T> Mono<T> limit(Mono<T> operation) {
+        return Mono.create(sink -> acquire(() -> sink.onDispose(operation
+            .doFinally(signal -> release())
+            .subscribe(sink::success, sink::error, sink::success))));
+    }
+
+    /** @return the name of the limited resource type */
+    public String name() {
+        return name;
+    }
+
+    /** @return the number of operations waiting for a slot */
+    public synchronized int queued() {
+        return waiting.size();
+    }
+
+    private void acquire(Runnable start) {
+        synchronized (this) {
+            if (active >= limit) {
+                waiting.add(start);
+                return;
+            }
+            active++;
+        }
+        start.run();
+    }
+
+    private void release() {
+        Runnable next;
+        synchronized (this) {
+            next = waiting.poll();
+            if (next == null) {
+                active--;
+                return;
+            }
+        }
+        next.run();
+    }
+}
@@ -0,0 +1,122 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Append-only local journal of completed provisioning steps and the values, mostly resource IDs, they produced.
+ * <p>
+ * Each record is one line, written and forced to disk as soon as its step completes. A line cut short by a crash
+ * is ignored when the journal is read back, so a restarted run resumes at the first step without a complete record.
+ */
+public final class ProvisioningJournal {
+
+    private final File file;
+    private final Map<String, Map<String, String>> completed = new LinkedHashMap<>();
+
+    private ProvisioningJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens a journal, reading the steps recorded by previous runs.
+     *
+     * @param file the journal file, created on the first record
+     * @return the journal
+     * @throws IOException if the journal cannot be read
+     */
+    public static ProvisioningJournal open(File file) throws IOException {
+        ProvisioningJournal journal = new ProvisioningJournal(file);
+        if (file.exists()) {
+            String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            int end = content.lastIndexOf('\n');
+            if (end >= 0) {
+                for (String line : content.substring(0, end).split("\n")) {
+                    String[] fields = line.split("\t");
+                    Map<String, String> values = new LinkedHashMap<>();
+                    for (int i = 1; i < fields.length; i++) {
+                        int separator = fields[i].indexOf('=');
+                        values.put(decode(fields[i].substring(0, separator)), decode(fields[i].substring(separator + 1)));
+                    }
+                    journal.completed.put(decode(fields[0]), Collections.unmodifiableMap(values));
+                }
+            }
+            System.out.printf("Journal %s has %d completed steps: %s%n", file, journal.completed.size(), journal.completed.keySet());
+        }
+        return journal;
+    }
+
+    /**
+     * @param step the step name
+     * @return the values recorded for the step, or null if the step has not completed
+     */
+    public synchronized Map<String, String> completed(String step) {
+        return completed.get(step);
+    }
+
+    /**
+     * Records a completed step.
+     *
+     * @param step the step name
+     * @param values the values produced by the step
+     * @throws IOException if the record cannot be written
+     */
+    public synchronized void record(String step, Map<String, String> values) throws IOException {
+        StringBuilder line = new StringBuilder(encode(step));
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            line.append('\t').append(encode(entry.getKey())).append('=').append(encode(entry.getValue()));
+        }
+        line.append('\n');
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(line.toString().getBytes(StandardCharsets.UTF_8)));
+            channel.force(true);
+        }
+        completed.put(step, Collections.unmodifiableMap(new LinkedHashMap<>(values)));
+    }
+
+    /**
+     * Deletes the journal once the run it tracks has completed.
+     *
+     * @throws IOException if the journal cannot be deleted
+     */
+    public synchronized void delete() throws IOException {
+        Files.deleteIfExists(file.toPath());
+        completed.clear();
+    }
+
+    /** @return the journal file */
+    public File file() {
+        return file;
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Downloads a large artifact as several concurrent byte ranges.
+ * <p>
+ * When the server advertises {@code Accept-Ranges: bytes}, the target file is preallocated and each segment is
+ * written at its own position through a shared {@link FileChannel}. Segments are retried independently, and the
+ * progress of every segment is kept in a {@code .state} sidecar so an interrupted download resumes where it stopped,
+ * as long as the ETag and length of the artifact are unchanged. Servers without range support are read as a single
+ * stream. A download holds a lock on a {@code .lock} sidecar, so concurrent downloads of the same target, in this
+ * process or another one, run one after the other.
+ */
+public final class SegmentedDownloader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Map<String, Object> TARGET_LOCKS = new ConcurrentHashMap<>();
+    private static final long STATE_SAVE_INTERVAL = 4L * 1024 * 1024;
+
+    private final int segments;
+    private final long minSegmentBytes;
+    private final int maxAttempts;
+
+    /**
+     * Creates a downloader with 4 segments of at least 4 MB, each tried up to 3 times.
+     */
+    public SegmentedDownloader() {
+        this(4, 4L * 1024 * 1024, 3);
+    }
+
+    /**
+     * Creates a downloader.
+     *
+     * @param segments the maximum number of concurrent segments
+     * @param minSegmentBytes the minimum size of a segment; smaller artifacts use fewer segments or a single stream
+     * @param maxAttempts the number of attempts per segment
+     */
+    public SegmentedDownloader(int segments, long minSegmentBytes, int maxAttempts) {
+        this.segments = segments;
+        this.minSegmentBytes = minSegmentBytes;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Downloads the artifact to the target file, resuming a previous interrupted download of the same artifact.
+     *
+     * @param url the artifact URL
+     * @param target the target file
+     * @throws IOException if the download fails; the partial file and its progress are kept for a later resume
+     */
+    public void download(URL url, File target) throws IOException {
+        download(url, target, probe(url), null);
+    }
+
+    /**
+     * Downloads the artifact of a GET already answered with 200, using its headers instead of probing the artifact
+     * again and its body as the first segment.
+     *
+     * @param response the connection of the GET, with its response code read; it is left for the caller to disconnect
+     * @param target the target file
+     * @throws IOException if the download fails; the partial file and its progress are kept for a later resume
+     */
+    public void download(HttpURLConnection response, File target) throws IOException {
+        try (InputStream body = response.getInputStream()) {
+            download(response.getURL(), target, probe(response), body);
+        }
+    }
+
+    private void download(URL url, File target, Probe probe, InputStream initialBody) throws IOException {
+        Object processLock = TARGET_LOCKS.computeIfAbsent(target.getAbsolutePath(), key -> new Object());
+        synchronized (processLock) {
+            try (RandomAccessFile lockFile = new RandomAccessFile(target.getPath() + ".lock", "rw");
+                 FileChannel lockChannel = lockFile.getChannel()) {
+                FileLock lock = lockChannel.lock();
+                try {
+                    downloadLocked(url, target, probe, initialBody);
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    private void downloadLocked(URL url, File target, Probe probe, InputStream initialBody) throws IOException {
+        long start = System.nanoTime();
+        int segmentCount = probe.length < 0 ? 1 : (int) Math.max(1, Math.min(segments, probe.length / minSegmentBytes));
+        if (!probe.acceptsRanges || segmentCount == 1) {
+            downloadSingleStream(url, target, initialBody);
+        } else {
+            downloadSegments(url, target, probe, segmentCount, initialBody);
+        }
+        long elapsed = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        System.out.printf("Downloaded %s in %d segment(s): %d bytes in %d ms (%.1f MB/s)%n",
+            url, probe.acceptsRanges ? segmentCount : 1, target.length(), elapsed,
+            target.length() / 1024.0 / 1024.0 / (elapsed / 1000.0));
+    }
+
+    private void downloadSegments(URL url, File target, Probe probe, int segmentCount, InputStream initialBody)
+        throws IOException {
+        File stateFile = new File(target.getPath() + ".state");
+        AtomicLongArray done = loadState(stateFile, target, probe, segmentCount);
+        long segmentSize = (probe.length + segmentCount - 1) / segmentCount;
+
+        ExecutorService executor = Executors.newFixedThreadPool(segmentCount);
+        try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (channel.size() != probe.length) {
+                channel.truncate(probe.length);
+                channel.write(ByteBuffer.allocate(1), probe.length - 1);
+            }
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < segmentCount; i++) {
+                int segment = i;
+                long first = segment * segmentSize;
+                long last = Math.min(probe.length, first + segmentSize) - 1;
+                // the body of the initial GET starts at byte 0, so it serves the first segment unless that one resumes
+                InputStream body = segment == 0 && done.get(0) == 0 ? initialBody : null;
+                futures.add(executor.submit(() -> {
+                    downloadSegment(url, channel, probe, segment, first, last, done, stateFile, body);
+                    return null;
+                }));
+            }
+
+            IOException failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while downloading " + url, e);
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = new IOException("Failed to download " + url);
+                    }
+                    failure.addSuppressed(e.getCause());
+                }
+            }
+            channel.force(false);
+            saveState(stateFile, probe, done);
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Files.deleteIfExists(stateFile.toPath());
+    }
+
+    private void downloadSegment(URL url, FileChannel channel, Probe probe, int segment, long first, long last,
+                                 AtomicLongArray done, File stateFile, InputStream initialBody) throws IOException {
+        IOException lastError = null;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            long position = first + done.get(segment);
+            if (position > last) {
+                return;
+            }
+            if (attempt == 1 && initialBody != null) {
+                try {
+                    position = copy(initialBody, channel, position, last, segment, done, stateFile, probe);
+                    if (position > last) {
+                        return;
+                    }
+                    lastError = new IOException(String.format("Segment %d of %s ended early at byte %d", segment, url, position));
+                } catch (IOException e) {
+                    lastError = e;
+                }
+                System.out.printf("Segment %d of %s failed (attempt %d of %d): %s%n",
+                    segment, url, attempt, maxAttempts, lastError.getMessage());
+                continue;
+            }
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            try {
+                connection.setRequestProperty("Range", String.format("bytes=%d-%d", position, last));
+                if (probe.etag != null) {
+                    connection.setRequestProperty("If-Range", probe.etag);
+                }
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException(String.format("Expected 206 for segment %d of %s, got %d",
+                        segment, url, connection.getResponseCode()));
+                }
+                try (InputStream inputStream = connection.getInputStream()) {
+                    position = copy(inputStream, channel, position, last, segment, done, stateFile, probe);
+                }
+                if (position <= last) {
+                    throw new IOException(String.format("Segment %d of %s ended early at byte %d", segment, url, position));
+                }
+                return;
+            } catch (IOException e) {
+                lastError = e;
+                System.out.printf("Segment %d of %s failed (attempt %d of %d): %s%n",
+                    segment, url, attempt, maxAttempts, e.getMessage());
+                if (attempt < maxAttempts) {
+                    sleep(attempt);
+                }
+            } finally {
+                connection.disconnect();
+            }
+        }
+        throw lastError;
+    }
+
+    /**
+     * Writes the stream to the segment from the position up to its last byte, saving the progress regularly.
+     *
+     * @return the position after the last byte written
+     */
+    private static long copy(InputStream inputStream, FileChannel channel, long position, long last, int segment,
+                             AtomicLongArray done, File stateFile, Probe probe) throws IOException {
+        long unsaved = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int size;
+        while (position <= last && (size = inputStream.read(buffer, 0, (int) Math.min(buffer.length, last - position + 1))) > 0) {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, size);
+            while (byteBuffer.hasRemaining()) {
+                position += channel.write(byteBuffer, position);
+            }
+            done.addAndGet(segment, size);
+            unsaved += size;
+            if (unsaved >= STATE_SAVE_INTERVAL) {
+                channel.force(false);
+                saveState(stateFile, probe, done);
+                unsaved = 0;
+            }
+        }
+        return position;
+    }
+
+    private static void downloadSingleStream(URL url, File target, InputStream initialBody) throws IOException {
+        if (initialBody != null) {
+            Files.copy(initialBody, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try (InputStream inputStream = connection.getInputStream();
+             OutputStream outputStream = new FileOutputStream(target)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int size;
+            while ((size = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, size);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static Probe probe(HttpURLConnection response) {
+        return new Probe("bytes".equalsIgnoreCase(response.getHeaderField("Accept-Ranges")),
+            response.getContentLengthLong(), response.getHeaderField("ETag"));
+    }
+
+    private static Probe probe(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod("HEAD");
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                return new Probe(false, -1, null);
+            }
+            return probe(connection);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Loads the progress of a previous download of the same artifact, or starts from scratch.
+     */
+    private static AtomicLongArray loadState(File stateFile, File target, Probe probe, int segmentCount) throws IOException {
+        AtomicLongArray done = new AtomicLongArray(segmentCount);
+        if (stateFile.exists() && target.length() == probe.length) {
+            Properties state = new Properties();
+            try (InputStream inputStream = new FileInputStream(stateFile)) {
+                state.load(inputStream);
+            }
+            if (Long.toString(probe.length).equals(state.getProperty("length"))
+                && Objects.equals(probe.etag, state.getProperty("etag"))
+                && Integer.toString(segmentCount).equals(state.getProperty("segments"))) {
+                for (int i = 0; i < segmentCount; i++) {
+                    done.set(i, Long.parseLong(state.getProperty("done." + i, "0")));
+                }
+                System.out.printf("Resuming download of %s at %d bytes%n", target.getName(), sum(done));
+            }
+        }
+        return done;
+    }
+
+    private static synchronized void saveState(File stateFile, Probe probe, AtomicLongArray done) throws IOException {
+        Properties state = new Properties();
+        state.setProperty("length", Long.toString(probe.length));
+        state.setProperty("segments", Integer.toString(done.length()));
+        if (probe.etag != null) {
+            state.setProperty("etag", probe.etag);
+        }
+        for (int i = 0; i < done.length(); i++) {
+            state.setProperty("done." + i, Long.toString(done.get(i)));
+        }
+        File temp = new File(stateFile.getPath() + ".tmp");
+        try (OutputStream outputStream = new FileOutputStream(temp)) {
+            state.store(outputStream, null);
+        }
+        Files.move(temp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long sum(AtomicLongArray values) {
+        long total = 0;
+        for (int i = 0; i < values.length(); i++) {
+            total += values.get(i);
+        }
+        return total;
+    }
+
+    private static void sleep(int attempt) {
+        try {
+            Thread.sleep(500L * attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Probe {
+        private final boolean acceptsRanges;
+        private final long length;
+        private final String etag;
+
+        private Probe(boolean acceptsRanges, long length, String etag) {
+            this.acceptsRanges = acceptsRanges;
+            this.length = length;
+            this.etag = etag;
+        }
+    }
+}
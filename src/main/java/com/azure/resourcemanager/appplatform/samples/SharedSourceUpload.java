@@ -0,0 +1,132 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import com.azure.resourcemanager.appplatform.models.ResourceUploadDefinition;
+import com.azure.resourcemanager.appplatform.models.SourceUploadedUserSourceInfo;
+import com.azure.resourcemanager.appplatform.models.SpringApp;
+import com.azure.resourcemanager.appplatform.models.SpringAppDeployment;
+import com.azure.resourcemanager.appplatform.models.UserSourceInfo;
+import com.azure.storage.file.share.ShareFileAsyncClient;
+import com.azure.storage.file.share.ShareFileClientBuilder;
+import reactor.core.publisher.Mono;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Uploads a source archive to the upload location of a spring cloud service once, so that several deployments
+ * can reference the same uploaded relative path instead of each uploading identical bytes.
+ * <p>
+ * Uploads are cached per service and file for the lifetime of the process; concurrent callers asking for the same
+ * archive share a single upload.
+ */
+public final class SharedSourceUpload {
+
+    private static final Map<String, Mono<String>> UPLOADS = new ConcurrentHashMap<>();
+
+    private SharedSourceUpload() {
+    }
+
+    /**
+     * Uploads the archive to the upload location of the service the app belongs to, or returns the relative path
+     * of a previous upload of the same file.
+     *
+     * @param app any existing app of the target spring cloud service
+     * @param source the source archive
+     * @return the relative path of the uploaded archive, to be used with {@code withExistingSource}
+     */
+    public static String upload(SpringApp app, File source) {
+        return uploadAsync(app, source).block();
+    }
+
+    /**
+     * Uploads the archive to the upload location of the service the app belongs to, or returns the relative path
+     * of a previous upload of the same file.
+     *
+     * @param app any existing app of the target spring cloud service
+     * @param source the source archive
+     * @return the relative path of the uploaded archive, to be used with {@code withExistingSource}
+     */
+    public static Mono<String> uploadAsync(SpringApp app, File source) {
+        String key = String.format("%s|%s|%d|%d",
+            app.parent().id().toLowerCase(), source.getAbsolutePath(), source.length(), source.lastModified());
+        return UPLOADS.computeIfAbsent(key, ignored -> doUpload(app, source)
+            .doOnError(e -> UPLOADS.remove(key))
+            .cache());
+    }
+
+    /**
+     * Selects the module a deployment of an uploaded multi-module source archive builds. The fluent definition only
+     * offers {@code withTargetModule} after uploading the archive itself, so the selector is set on the source of the
+     * definition's inner model.
+     *
+     * @param definition a deployment definition with {@code withExistingSource(UserSourceType.SOURCE, ...)}
+     * @param module the module to build
+     * @param <T> type of the definition
+     * @return the definition
+     */
+    public static <T extends SpringAppDeployment.DefinitionStages.WithCreate<T>> T withTargetModule(T definition,
+                                                                                                   String module) {
+        UserSourceInfo source = ((SpringAppDeployment) definition).innerModel().properties().source();
+        if (!(source instanceof SourceUploadedUserSourceInfo)) {
+            throw new IllegalStateException("Deployment has no uploaded source: " + source);
+        }
+        ((SourceUploadedUserSourceInfo) source).withArtifactSelector(module);
+        return definition;
+    }
+
+    /**
+     * Points an existing deployment at an uploaded source archive and selects the module it builds. The fluent
+     * update keeps the source type the deployment already has, so the source of the inner model is replaced.
+     *
+     * @param update the deployment update
+     * @param relativePath the relative path of the uploaded archive
+     * @param module the module to build
+     * @return the update
+     */
+    public static SpringAppDeployment.Update withUploadedSource(SpringAppDeployment.Update update,
+                                                                String relativePath, String module) {
+        ((SpringAppDeployment) update).innerModel().properties().withSource(new SourceUploadedUserSourceInfo()
+            .withArtifactSelector(module)
+            .withRelativePath(relativePath));
+        return update;
+    }
+
+    /**
+     * @param deployment a deployment
+     * @return the module the deployment builds from its uploaded source archive, or null if it has none
+     */
+    public static String targetModule(SpringAppDeployment deployment) {
+        UserSourceInfo source = deployment.innerModel().properties() == null
+            ? null : deployment.innerModel().properties().source();
+        return source instanceof SourceUploadedUserSourceInfo
+            ? ((SourceUploadedUserSourceInfo) source).artifactSelector() : null;
+    }
+
+    private static Mono<String> doUpload(SpringApp app, File source) {
+        return app.getResourceUploadUrlAsync()
+            .flatMap(definition -> {
+                long start = System.nanoTime();
+                System.out.printf("Uploading %s (%d bytes) to spring cloud service %s ...%n",
+                    source.getName(), source.length(), app.parent().name());
+                ShareFileAsyncClient fileClient = createShareFileClient(app, definition);
+                return fileClient.create(source.length())
+                    .then(fileClient.uploadFromFile(source.getAbsolutePath()))
+                    .then(Mono.fromCallable(() -> {
+                        System.out.printf("Uploaded %s to %s in %d ms%n",
+                            source.getName(), definition.relativePath(), (System.nanoTime() - start) / 1_000_000);
+                        return definition.relativePath();
+                    }));
+            });
+    }
+
+    private static ShareFileAsyncClient createShareFileClient(SpringApp app, ResourceUploadDefinition definition) {
+        return new ShareFileClientBuilder()
+            .endpoint(definition.uploadUrl())
+            .httpClient(app.parent().manager().httpPipeline().getHttpClient())
+            .buildFileAsyncClient();
+    }
+}
@@ -0,0 +1,338 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import com.azure.core.http.HttpHeaders;
+import com.azure.core.http.policy.AddHeadersFromContextPolicy;
+import com.azure.core.http.rest.Response;
+import com.azure.core.management.Region;
+import com.azure.core.management.exception.ManagementException;
+import com.azure.core.util.Context;
+import com.azure.resourcemanager.AzureResourceManager;
+import com.azure.resourcemanager.appplatform.fluent.ServicesClient;
+import com.azure.resourcemanager.appplatform.fluent.models.ServiceResourceInner;
+import com.azure.resourcemanager.appplatform.models.ProvisioningState;
+import com.azure.resourcemanager.appplatform.models.SpringApp;
+import com.azure.resourcemanager.appplatform.models.SpringService;
+import com.azure.resourcemanager.appplatform.models.SpringServiceCertificate;
+import com.azure.resourcemanager.resources.fluentcore.utils.ResourceManagerUtils;
+import com.azure.resourcemanager.samples.Utils;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps a number of spring cloud services pre-created in a resource group and leases them to runs.
+ * <p>
+ * Pool membership and leases are recorded as tags on the services, so several processes can share a pool.
+ * A lease is taken with an update conditional on the ETag of the service, so of several runs leasing the same
+ * service only one succeeds and the others move on to the next one. A lease expires after its TTL, after which
+ * the service can be leased again. Returning a lease deletes the apps and certificates of the service.
+ * A background thread tops the pool back up to its target size whenever a service is leased; requests arriving
+ * during a top-up run another one once it finishes. Only services that finished provisioning are leased or count
+ * as free; a failed one is deleted by the next top-up.
+ */
+public final class SpringServicePool implements AutoCloseable {
+
+    private static final String TAG_POOL = "pool";
+    private static final String TAG_LEASE = "lease";
+    private static final String TAG_LEASE_EXPIRY = "leaseExpiry";
+
+    private final AzureResourceManager azureResourceManager;
+    private final String poolName;
+    private final String resourceGroup;
+    private final Region region;
+    private final int size;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "spring-service-pool");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger topUpRequests = new AtomicInteger();
+
+    /**
+     * A leased spring cloud service.
+     */
+    public static final class Lease {
+        private final SpringService service;
+        private final String id;
+        private final Instant expiresAt;
+
+        private Lease(SpringService service, String id, Instant expiresAt) {
+            this.service = service;
+            this.id = id;
+            this.expiresAt = expiresAt;
+        }
+
+        /** @return the leased service */
+        public SpringService service() {
+            return service;
+        }
+
+        /** @return the lease id */
+        public String id() {
+            return id;
+        }
+
+        /** @return when the lease expires and the service may be handed to another run */
+        public Instant expiresAt() {
+            return expiresAt;
+        }
+    }
+
+    /**
+     * Creates a pool and starts topping it up in the background.
+     *
+     * @param azureResourceManager instance of the azure client
+     * @param resourceGroup the resource group holding the pool; created if missing
+     * @param region the region of the pooled services
+     * @param size the number of services to keep pre-created
+     */
+    public SpringServicePool(AzureResourceManager azureResourceManager, String resourceGroup, Region region, int size) {
+        this.azureResourceManager = azureResourceManager;
+        this.poolName = resourceGroup;
+        this.resourceGroup = resourceGroup;
+        this.region = region;
+        this.size = size;
+        if (!azureResourceManager.resourceGroups().contain(resourceGroup)) {
+            azureResourceManager.resourceGroups().define(resourceGroup).withRegion(region).create();
+        }
+        topUpInBackground();
+    }
+
+    /**
+     * Leases a free service, creating one if the pool has none ready.
+     *
+     * @param ttl how long the lease is valid
+     * @return the lease
+     */
+    public Lease lease(Duration ttl) {
+        String leaseId = UUID.randomUUID().toString();
+        Instant expiresAt = Instant.now().plus(ttl);
+        try {
+            for (SpringService candidate : pooledServices()) {
+                // a service still being created by a top-up, or one that failed, is not leased
+                if (isFree(candidate.tags()) && isReady(candidate.innerModel()) && tryLease(candidate, leaseId, expiresAt)) {
+                    System.out.printf("Leased spring cloud service %s until %s%n", candidate.name(), expiresAt);
+                    return new Lease(awaitProvisioned(candidate), leaseId, expiresAt);
+                }
+            }
+
+            System.out.println("No pooled spring cloud service is free, creating one ...");
+            SpringService service = azureResourceManager.springServices()
+                .define(Utils.randomResourceName(azureResourceManager, "pooled", 24))
+                .withRegion(region)
+                .withExistingResourceGroup(resourceGroup)
+                .withTag(TAG_POOL, poolName)
+                .withTag(TAG_LEASE, leaseId)
+                .withTag(TAG_LEASE_EXPIRY, expiresAt.toString())
+                .create();
+            return new Lease(service, leaseId, expiresAt);
+        } finally {
+            topUpInBackground();
+        }
+    }
+
+    /**
+     * Takes back a lease recorded by an interrupted run, so that the run can resume with the same service.
+     *
+     * @param serviceId the id of the leased service
+     * @param leaseId the lease id
+     * @return the lease
+     * @throws IllegalStateException if the lease expired or the service was leased by another run meanwhile
+     */
+    public Lease resume(String serviceId, String leaseId) {
+        SpringService service = azureResourceManager.springServices().getById(serviceId);
+        if (!leaseId.equals(service.tags().get(TAG_LEASE)) || isFree(service.tags())) {
+            throw new IllegalStateException(String.format("Lease %s on %s was lost", leaseId, service.name()));
+        }
+        Instant expiresAt = Instant.parse(service.tags().get(TAG_LEASE_EXPIRY));
+        System.out.printf("Resumed lease of spring cloud service %s until %s%n", service.name(), expiresAt);
+        return new Lease(service, leaseId, expiresAt);
+    }
+
+    /**
+     * Returns a leased service to the pool after deleting its apps and certificates.
+     *
+     * @param lease the lease
+     */
+    public void release(Lease lease) {
+        SpringService service = lease.service();
+        service.refresh();
+        if (!lease.id().equals(service.tags().get(TAG_LEASE))) {
+            System.out.printf("Lease %s on %s was lost, not wiping it%n", lease.id(), service.name());
+            return;
+        }
+        List<String> apps = service.apps().list().stream().map(SpringApp::name).collect(Collectors.toList());
+        Flux.fromIterable(apps)
+            .flatMap(app -> service.apps().deleteByNameAsync(app))
+            .then()
+            .block();
+
+        SpringService.Update update = service.update()
+            .withoutTag(TAG_LEASE)
+            .withoutTag(TAG_LEASE_EXPIRY);
+        for (SpringServiceCertificate certificate : service.certificates().list()) {
+            update = update.withoutCertificate(certificate.name());
+        }
+        update.apply();
+        System.out.printf("Returned spring cloud service %s to the pool after deleting %d apps%n", service.name(), apps.size());
+    }
+
+    /**
+     * Stops topping up the pool without waiting for a running top-up. The services it already requested keep
+     * provisioning in Azure, and join the pool once they succeed since they are tagged when requested.
+     */
+    @Override
+    public void close() {
+        if (topUpRequests.get() > 0) {
+            System.out.printf("Leaving the top-up of spring cloud service pool %s to continue in Azure%n", poolName);
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Tags the service with the lease if it is still free, conditionally on its ETag.
+     *
+     * @return whether the lease was taken; false if another run changed the service since it was read
+     */
+    private boolean tryLease(SpringService candidate, String leaseId, Instant expiresAt) {
+        ServicesClient services = candidate.manager().serviceClient().getServices();
+        Response<ServiceResourceInner> current = services.getByResourceGroupWithResponse(
+            resourceGroup, candidate.name(), Context.NONE);
+        String etag = current.getHeaders().getValue("ETag");
+        if (etag == null) {
+            // without an ETag the update cannot be made conditional, leave the service to a fresh one instead
+            System.out.printf("Spring cloud service %s has no ETag, not leasing it%n", candidate.name());
+            return false;
+        }
+        ServiceResourceInner inner = current.getValue();
+        if (!isFree(inner.tags()) || !isReady(inner)) {
+            return false;
+        }
+        Map<String, String> tags = new HashMap<>(inner.tags());
+        tags.put(TAG_LEASE, leaseId);
+        tags.put(TAG_LEASE_EXPIRY, expiresAt.toString());
+        try {
+            services.updateWithResponseAsync(resourceGroup, candidate.name(), inner.withTags(tags))
+                .flatMap(response -> response.getValue().then())
+                .contextWrite(reactor.util.context.Context.of(AddHeadersFromContextPolicy.AZURE_REQUEST_HTTP_HEADERS_KEY,
+                    new HttpHeaders().set("If-Match", etag)))
+                .block();
+            return true;
+        } catch (ManagementException e) {
+            int code = e.getResponse() == null ? 0 : e.getResponse().getStatusCode();
+            if (code == 412 || code == 409) {
+                System.out.printf("Spring cloud service %s was leased by another run%n", candidate.name());
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for the service to leave the creating or updating state, such as the update that tagged it with the lease.
+     *
+     * @throws IllegalStateException if the service did not end up provisioned
+     */
+    private static SpringService awaitProvisioned(SpringService service) {
+        service.refresh();
+        ProvisioningState state = provisioningState(service.innerModel());
+        while (ProvisioningState.CREATING.equals(state) || ProvisioningState.UPDATING.equals(state)) {
+            ResourceManagerUtils.sleep(Duration.ofSeconds(5));
+            service.refresh();
+            state = provisioningState(service.innerModel());
+        }
+        if (!ProvisioningState.SUCCEEDED.equals(state)) {
+            throw new IllegalStateException(String.format("Spring cloud service %s is %s", service.name(), state));
+        }
+        return service;
+    }
+
+    private static boolean isReady(ServiceResourceInner inner) {
+        return ProvisioningState.SUCCEEDED.equals(provisioningState(inner));
+    }
+
+    private static ProvisioningState provisioningState(ServiceResourceInner inner) {
+        return inner.properties() == null ? null : inner.properties().provisioningState();
+    }
+
+    private List<SpringService> pooledServices() {
+        return azureResourceManager.springServices().listByResourceGroup(resourceGroup).stream()
+            .filter(service -> poolName.equals(service.tags().get(TAG_POOL)))
+            .collect(Collectors.toList());
+    }
+
+    private static boolean isFree(Map<String, String> tags) {
+        if (tags == null) {
+            return true;
+        }
+        String expiry = tags.get(TAG_LEASE_EXPIRY);
+        return tags.get(TAG_LEASE) == null || expiry == null || Instant.parse(expiry).isBefore(Instant.now());
+    }
+
+    /**
+     * Creates the services missing to reach the target number of free services. A request arriving while a top-up
+     * runs makes it run again once it finishes, so that the services leased meanwhile are replaced too.
+     */
+    private void topUpInBackground() {
+        if (topUpRequests.getAndIncrement() > 0) {
+            return;
+        }
+        executor.execute(() -> {
+            int requests;
+            do {
+                requests = topUpRequests.get();
+                topUp();
+            } while (!topUpRequests.compareAndSet(requests, 0));
+        });
+    }
+
+    private void topUp() {
+        try {
+            List<SpringService> pooled = pooledServices();
+            // failed services are never leased, so they are replaced rather than kept in the pool
+            List<SpringService> failed = pooled.stream()
+                .filter(service -> isFree(service.tags())
+                    && ProvisioningState.FAILED.equals(provisioningState(service.innerModel())))
+                .collect(Collectors.toList());
+            if (!failed.isEmpty()) {
+                System.out.printf("Deleting %d failed spring cloud services from pool %s ...%n", failed.size(), poolName);
+                Flux.fromIterable(failed)
+                    .flatMap(service -> azureResourceManager.springServices().deleteByIdAsync(service.id()))
+                    .then()
+                    .block();
+            }
+            long free = pooled.stream().filter(service -> isFree(service.tags()) && isReady(service.innerModel())).count();
+            int missing = (int) Math.max(0, size - free);
+            if (missing > 0) {
+                System.out.printf("Topping up spring cloud service pool %s with %d services ...%n", poolName, missing);
+                Flux.range(0, missing)
+                    .flatMap(i -> azureResourceManager.springServices()
+                        .define(Utils.randomResourceName(azureResourceManager, "pooled", 24))
+                        .withRegion(region)
+                        .withExistingResourceGroup(resourceGroup)
+                        .withTag(TAG_POOL, poolName)
+                        .createAsync())
+                    .then()
+                    .block();
+            }
+        } catch (RuntimeException e) {
+            if (executor.isShutdown()) {
+                // interrupted by close, the requested services are still provisioning
+                return;
+            }
+            System.out.printf("Failed to top up spring cloud service pool %s: %s%n", poolName, e.getMessage());
+        }
+    }
+}
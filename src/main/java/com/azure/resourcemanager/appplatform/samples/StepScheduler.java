@@ -0,0 +1,263 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a provisioning workflow as a graph of named steps with declared dependencies.
+ * <p>
+ * Each step starts as soon as all of its dependencies have completed, so only the true critical path
+ * of the workflow ends up on the wall clock. A step may only depend on steps added before it,
+ * which keeps the graph acyclic by construction. Once a step fails, the steps that have not started yet are
+ * skipped, independent ones included.
+ */
+public final class StepScheduler {
+
+    /**
+     * A unit of work in the workflow.
+     *
+     * @param <T> type of the value produced by the step
+     */
+    @FunctionalInterface
+    public interface Step<T> {
+        /**
+         * Runs the step.
+         *
+         * @param results results of the steps completed so far
+         * @return the value produced by the step, available to dependent steps under the step name
+         * @throws Exception if the step fails
+         */
+        T run(StepResults results) throws Exception;
+    }
+
+    /**
+     * Extracts the values, typically resource IDs, to journal for a completed step.
+     *
+     * @param <T> type of the value produced by the step
+     */
+    @FunctionalInterface
+    public interface Checkpoint<T> {
+        /**
+         * @param value the value produced by the step
+         * @return the values to record in the journal
+         */
+        Map<String, String> values(T value);
+    }
+
+    /**
+     * Rebuilds the value of a step completed by a previous run from its journal record, typically with a GET.
+     *
+     * @param <T> type of the value produced by the step
+     */
+    @FunctionalInterface
+    public interface Rehydrator<T> {
+        /**
+         * @param values the values recorded in the journal
+         * @param results results of the steps completed so far
+         * @return the value of the step
+         * @throws Exception if the value cannot be rebuilt
+         */
+        T rehydrate(Map<String, String> values, StepResults results) throws Exception;
+    }
+
+    /**
+     * Values produced by completed steps.
+     */
+    public static final class StepResults {
+        private final Map<String, CompletableFuture<Object>> futures;
+
+        private StepResults(Map<String, CompletableFuture<Object>> futures) {
+            this.futures = futures;
+        }
+
+        /**
+         * Gets the value produced by a completed step.
+         *
+         * @param stepName the step name
+         * @param <T> type of the value
+         * @return the value produced by the step
+         */
+        @SuppressWarnings("unchecked")
+        public <T> T get(String stepName) {
+            CompletableFuture<Object> future = futures.get(stepName);
+            if (future == null || !future.isDone()) {
+                throw new IllegalStateException("Step has not completed: " + stepName);
+            }
+            return (T) future.join();
+        }
+    }
+
+    private static final class StepDefinition {
+        private final String name;
+        private final List<String> dependencies;
+        private final Step<?> step;
+
+        private StepDefinition(String name, List<String> dependencies, Step<?> step) {
+            this.name = name;
+            this.dependencies = dependencies;
+            this.step = step;
+        }
+    }
+
+    private final Map<String, StepDefinition> steps = new LinkedHashMap<>();
+    private ProvisioningJournal journal;
+
+    /**
+     * Records completed resumable steps in the journal, and skips the steps already recorded there.
+     *
+     * @param journal the journal
+     * @return this scheduler
+     */
+    public StepScheduler withJournal(ProvisioningJournal journal) {
+        this.journal = journal;
+        return this;
+    }
+
+    /**
+     * Adds a step to the workflow.
+     *
+     * @param name the step name
+     * @param step the work to run
+     * @param dependencies names of the steps that must complete before this one starts
+     * @return this scheduler
+     */
+    public StepScheduler step(String name, Step<?> step, String... dependencies) {
+        if (steps.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate step: " + name);
+        }
+        for (String dependency : dependencies) {
+            if (!steps.containsKey(dependency)) {
+                throw new IllegalArgumentException(
+                    String.format("Step %s depends on unknown or later step %s", name, dependency));
+            }
+        }
+        steps.put(name, new StepDefinition(name, Arrays.asList(dependencies), step));
+        return this;
+    }
+
+    /**
+     * Adds a step that is recorded in the journal when it completes. If a previous run already completed it,
+     * the step is not run again; its value is rebuilt from the journal record instead.
+     *
+     * @param name the step name
+     * @param step the work to run
+     * @param checkpoint extracts the values to record
+     * @param rehydrator rebuilds the value from the recorded values
+     * @param dependencies names of the steps that must complete before this one starts
+     * @param <T> type of the value produced by the step
+     * @return this scheduler
+     */
+    public <T> StepScheduler step(String name, Step<T> step, Checkpoint<T> checkpoint, Rehydrator<T> rehydrator,
+                                  String... dependencies) {
+        return step(name, results -> {
+            Map<String, String> recorded = journal == null ? null : journal.completed(name);
+            if (recorded != null) {
+                System.out.printf("[%s] completed by a previous run, resuming from journal%n", name);
+                return rehydrator.rehydrate(recorded, results);
+            }
+            T value = step.run(results);
+            if (journal != null) {
+                journal.record(name, checkpoint.values(value));
+            }
+            return value;
+        }, dependencies);
+    }
+
+    /**
+     * Runs all steps, each one as soon as its dependencies have completed.
+     *
+     * @return results of all steps
+     * @throws IllegalStateException if any step failed, with each root failure attached as suppressed
+     */
+    public StepResults run() {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, steps.size()));
+        long start = System.nanoTime();
+        // read by the executor threads while steps are still being submitted
+        Map<String, CompletableFuture<Object>> futures = new ConcurrentHashMap<>();
+        StepResults results = new StepResults(futures);
+        AtomicBoolean failed = new AtomicBoolean();
+        try {
+            for (StepDefinition definition : steps.values()) {
+                CompletableFuture<?>[] dependencies = definition.dependencies.stream()
+                    .map(futures::get)
+                    .toArray(CompletableFuture[]::new);
+                CompletableFuture<Object> future = CompletableFuture.allOf(dependencies)
+                    .thenApplyAsync(ignored -> runStep(definition, results, start, failed), executor);
+                futures.put(definition.name, future);
+            }
+
+            IllegalStateException failure = null;
+            for (String name : steps.keySet()) {
+                try {
+                    futures.get(name).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for step " + name, e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+                    if (cause instanceof StepFailedException && ((StepFailedException) cause).stepName.equals(name)) {
+                        if (failure == null) {
+                            failure = new IllegalStateException("Provisioning workflow failed");
+                        }
+                        failure.addSuppressed(cause);
+                    }
+                }
+            }
+            System.out.printf("Workflow of %d steps finished in %d s%n",
+                steps.size(), Duration.ofNanos(System.nanoTime() - start).getSeconds());
+            if (failure != null) {
+                throw failure;
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Object runStep(StepDefinition definition, StepResults results, long workflowStart,
+                                  AtomicBoolean failed) {
+        if (failed.get()) {
+            System.out.printf("[%s] skipped after an earlier failure%n", definition.name);
+            throw new CancellationException("Step " + definition.name + " skipped");
+        }
+        long stepStart = System.nanoTime();
+        System.out.printf("[%s] started at +%d s%n",
+            definition.name, Duration.ofNanos(stepStart - workflowStart).getSeconds());
+        try {
+            Object value = definition.step.run(results);
+            System.out.printf("[%s] completed in %d s%n",
+                definition.name, Duration.ofNanos(System.nanoTime() - stepStart).getSeconds());
+            return value;
+        } catch (Exception e) {
+            failed.set(true);
+            System.out.printf("[%s] failed after %d s: %s%n",
+                definition.name, Duration.ofNanos(System.nanoTime() - stepStart).getSeconds(), e.getMessage());
+            throw new StepFailedException(definition.name, e);
+        }
+    }
+
+    private static final class StepFailedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final String stepName;
+
+        private StepFailedException(String stepName, Throwable cause) {
+            super("Step " + stepName + " failed: " + cause.getMessage(), cause);
+            this.stepName = stepName;
+        }
+    }
+}
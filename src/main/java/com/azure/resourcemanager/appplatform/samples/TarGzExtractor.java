@@ -0,0 +1,177 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Extracts a tar.gz stream with one reader thread and a bounded pool of writer threads.
+ * <p>
+ * The calling thread decompresses the archive and hands each entry payload to the writers, which write it with a
+ * {@link FileChannel}. The payloads waiting for a writer are bounded by size, so a slow file system throttles the
+ * reader instead of letting payloads pile up in memory. Entries with the same name are written in archive order.
+ * Created directories are remembered so each one is only checked once.
+ */
+public final class TarGzExtractor {
+
+    /** Payloads waiting for a writer are bounded by their total size. */
+    private static final int MAX_BUFFERED_BYTES = 64 * 1024 * 1024;
+    /** Entries larger than this are written by the reader thread rather than buffered for the writers. */
+    private static final long MAX_BUFFERED_ENTRY = 4L * 1024 * 1024;
+
+    private final int writers;
+
+    /**
+     * Creates an extractor with one writer per available processor, at most 8.
+     */
+    public TarGzExtractor() {
+        this(Math.min(8, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Creates an extractor.
+     *
+     * @param writers the number of writer threads
+     */
+    public TarGzExtractor(int writers) {
+        this.writers = writers;
+    }
+
+    /**
+     * Extracts all files of the archive into the folder.
+     *
+     * @param folder the target folder
+     * @param inputStream the tar.gz stream, not closed by this method
+     * @throws IOException if the archive cannot be read or a file cannot be written
+     */
+    public void extract(File folder, InputStream inputStream) throws IOException {
+        Path root = folder.toPath().toAbsolutePath().normalize();
+        Set<Path> createdDirectories = ConcurrentHashMap.newKeySet();
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        AtomicLong files = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+        Semaphore buffered = new Semaphore(MAX_BUFFERED_BYTES);
+        // the pending write of each path, so that a later entry with the same name is written after an earlier one;
+        // a write removes itself once done, so only the writes still in flight are held
+        Map<Path, CompletableFuture<Void>> lastWrites = new ConcurrentHashMap<>();
+        long start = System.nanoTime();
+
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        // the caller owns the stream, so closing the archive streams must not close it
+        InputStream unclosable = new FilterInputStream(inputStream) {
+            @Override
+            public void close() {
+            }
+        };
+        try (TarArchiveInputStream tarInputStream =
+                 new TarArchiveInputStream(new GzipCompressorInputStream(unclosable, true))) {
+            TarArchiveEntry entry;
+            while ((entry = tarInputStream.getNextTarEntry()) != null && failure.get() == null) {
+                if (entry.isDirectory() || !entry.isFile()) {
+                    continue;
+                }
+                Path file = root.resolve(entry.getName()).normalize();
+                if (!file.startsWith(root)) {
+                    throw new IllegalStateException("Entry is outside of the target directory: " + entry.getName());
+                }
+                ensureDirectory(file.getParent(), createdDirectories);
+                CompletableFuture<Void> previous = lastWrites.getOrDefault(file, CompletableFuture.completedFuture(null));
+                if (entry.getSize() > MAX_BUFFERED_ENTRY) {
+                    previous.join();
+                    write(file, tarInputStream);
+                    files.incrementAndGet();
+                    bytes.addAndGet(entry.getSize());
+                    lastWrites.remove(file);
+                    continue;
+                }
+
+                byte[] content = IOUtils.toByteArray(tarInputStream);
+                // empty files count as one byte, so that the number of pending entries is bounded too
+                int permits = Math.max(1, content.length);
+                buffered.acquireUninterruptibly(permits);
+                CompletableFuture<Void> write = previous.thenRunAsync(() -> {
+                    try {
+                        write(file, ByteBuffer.wrap(content));
+                        files.incrementAndGet();
+                        bytes.addAndGet(content.length);
+                    } catch (IOException e) {
+                        failure.compareAndSet(null, e);
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, new IOException("Cannot write " + file, e));
+                    } finally {
+                        buffered.release(permits);
+                    }
+                }, executor);
+                lastWrites.put(file, write);
+                write.whenComplete((ignored, error) -> lastWrites.remove(file, write));
+            }
+        } finally {
+            CompletableFuture.allOf(lastWrites.values().toArray(new CompletableFuture<?>[0])).join();
+            executor.shutdown();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        double seconds = Math.max(1, (System.nanoTime() - start) / 1_000_000) / 1000.0;
+        System.out.printf("Extracted %d files (%d bytes) to %s in %.1f s: %.0f files/s, %.1f MB/s%n",
+            files.get(), bytes.get(), folder, seconds, files.get() / seconds, bytes.get() / 1024.0 / 1024.0 / seconds);
+    }
+
+    private static void ensureDirectory(Path directory, Set<Path> createdDirectories) {
+        if (createdDirectories.contains(directory)) {
+            return;
+        }
+        File file = directory.toFile();
+        if (file.isDirectory() || file.mkdirs() || file.isDirectory()) {
+            createdDirectories.add(directory);
+        } else {
+            throw new IllegalStateException("Cannot create directory: " + file.getAbsolutePath());
+        }
+    }
+
+    private static void write(Path file, ByteBuffer content) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+        }
+    }
+
+    private static void write(Path file, InputStream inputStream) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            byte[] buffer = new byte[64 * 1024];
+            int size;
+            while ((size = inputStream.read(buffer)) > 0) {
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, size);
+                while (byteBuffer.hasRemaining()) {
+                    channel.write(byteBuffer);
+                }
+            }
+        }
+    }
+}
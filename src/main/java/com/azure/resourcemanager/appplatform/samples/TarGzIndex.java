@@ -0,0 +1,623 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.utils.CountingInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Random-access index for a tar.gz archive, kept as a {@code .idx} sidecar next to it.
+ * <p>
+ * The index holds inflate checkpoints, i.e. pairs of compressed and uncompressed offsets where decompression
+ * can start, plus the table of tar entries with their metadata and the uncompressed offset of their data. Reading an
+ * entry seeks to the nearest checkpoint before it, so extracting one module costs roughly the size of that module.
+ * <p>
+ * {@link Inflater} cannot resume in the middle of a deflate stream, so checkpoints sit at gzip member boundaries.
+ * An archive compressed as a single member gets a single checkpoint; {@link #recompress(File, File, long)} rewrites
+ * it as a sequence of members, which every gzip reader still reads as one stream. {@link ArtifactCache#fetchIndex}
+ * does so once per cached archive.
+ */
+public final class TarGzIndex {
+
+    /** Default distance in uncompressed bytes between checkpoints, and size of the members of a recompressed archive. */
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = 1024L * 1024;
+
+    private static final int MAGIC = 0x54475a49;
+    private static final int VERSION = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File archive;
+    private final List<Checkpoint> checkpoints;
+    private final List<Entry> entries;
+
+    private TarGzIndex(File archive, List<Checkpoint> checkpoints, List<Entry> entries) {
+        this.archive = archive;
+        this.checkpoints = checkpoints;
+        this.entries = entries;
+    }
+
+    /**
+     * A position where decompression can start.
+     */
+    private static final class Checkpoint {
+        private final long compressedOffset;
+        private final long uncompressedOffset;
+
+        private Checkpoint(long compressedOffset, long uncompressedOffset) {
+            this.compressedOffset = compressedOffset;
+            this.uncompressedOffset = uncompressedOffset;
+        }
+    }
+
+    /**
+     * An entry of the archive.
+     */
+    public static final class Entry {
+        private final String name;
+        private final byte linkFlag;
+        private final int mode;
+        private final long lastModified;
+        private final String linkName;
+        private final long dataOffset;
+        private final long size;
+
+        private Entry(String name, byte linkFlag, int mode, long lastModified, String linkName, long dataOffset, long size) {
+            this.name = name;
+            this.linkFlag = linkFlag;
+            this.mode = mode;
+            this.lastModified = lastModified;
+            this.linkName = linkName;
+            this.dataOffset = dataOffset;
+            this.size = size;
+        }
+
+        /** @return the entry name */
+        public String name() {
+            return name;
+        }
+
+        /** @return the tar type of the entry, one of the {@code LF_} constants of {@link TarConstants} */
+        public byte linkFlag() {
+            return linkFlag;
+        }
+
+        /** @return whether the entry is a regular file */
+        public boolean isFile() {
+            return linkFlag == TarConstants.LF_NORMAL;
+        }
+
+        /** @return the file mode */
+        public int mode() {
+            return mode;
+        }
+
+        /** @return the modification time in milliseconds since the epoch */
+        public long lastModified() {
+            return lastModified;
+        }
+
+        /** @return the link target of a link entry, empty for other entries */
+        public String linkName() {
+            return linkName;
+        }
+
+        /** @return the size of the entry data */
+        public long size() {
+            return size;
+        }
+    }
+
+    /**
+     * Consumes the data of an entry.
+     */
+    @FunctionalInterface
+    public interface EntryReader {
+        /**
+         * @param entry the entry
+         * @param data the entry data, only valid during the call
+         * @throws IOException if the data cannot be read or consumed
+         */
+        void read(Entry entry, InputStream data) throws IOException;
+    }
+
+    /**
+     * Loads the sidecar index of the archive, building and saving it if it is missing or out of date.
+     *
+     * @param archive the tar.gz archive
+     * @return the index
+     * @throws IOException if the archive or the index cannot be read
+     */
+    public static TarGzIndex load(File archive) throws IOException {
+        File indexFile = indexFile(archive);
+        if (indexFile.exists()) {
+            try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+                if (inputStream.readInt() == MAGIC && inputStream.readInt() == VERSION
+                    && inputStream.readLong() == archive.length() && inputStream.readLong() == archive.lastModified()) {
+                    List<Checkpoint> checkpoints = new ArrayList<>();
+                    for (int i = inputStream.readInt(); i > 0; i--) {
+                        checkpoints.add(new Checkpoint(inputStream.readLong(), inputStream.readLong()));
+                    }
+                    List<Entry> entries = new ArrayList<>();
+                    for (int i = inputStream.readInt(); i > 0; i--) {
+                        entries.add(new Entry(inputStream.readUTF(), inputStream.readByte(), inputStream.readInt(),
+                            inputStream.readLong(), inputStream.readUTF(), inputStream.readLong(), inputStream.readLong()));
+                    }
+                    return new TarGzIndex(archive, checkpoints, entries);
+                }
+            }
+        }
+        TarGzIndex index = build(archive, DEFAULT_CHECKPOINT_INTERVAL);
+        index.save();
+        return index;
+    }
+
+    /**
+     * Builds the index of the archive by reading it once for the gzip members and once for the tar entries.
+     *
+     * @param archive the tar.gz archive
+     * @param checkpointInterval the minimum distance in uncompressed bytes between checkpoints
+     * @return the index
+     * @throws IOException if the archive cannot be read
+     */
+    public static TarGzIndex build(File archive, long checkpointInterval) throws IOException {
+        long start = System.nanoTime();
+        List<Checkpoint> checkpoints = scanMembers(archive, checkpointInterval);
+
+        List<Entry> entries = new ArrayList<>();
+        try (CountingInputStream countingInputStream = new CountingInputStream(
+                new GzipCompressorInputStream(new BufferedInputStream(new FileInputStream(archive)), true)) {
+                // the tar stream skips the data of the entries, which counts towards the offsets as well
+                @Override
+                public long skip(long n) throws IOException {
+                    long skipped = super.skip(n);
+                    count(skipped);
+                    return skipped;
+                }
+            };
+             TarArchiveInputStream inputStream = new TarArchiveInputStream(countingInputStream)) {
+            TarArchiveEntry entry;
+            while ((entry = inputStream.getNextTarEntry()) != null) {
+                byte linkFlag = linkFlag(entry);
+                if (linkFlag >= 0) {
+                    // the tar stream reads whole records without read-ahead, so the count is the data offset
+                    entries.add(new Entry(entry.getName(), linkFlag, entry.getMode(), entry.getModTime().getTime(),
+                        entry.getLinkName() == null ? "" : entry.getLinkName(), countingInputStream.getBytesRead(), entry.isFile() ? entry.getSize() : 0));
+                }
+            }
+        }
+        System.out.printf("Indexed %s: %d entries, %d checkpoints in %d ms%n",
+            archive.getName(), entries.size(), checkpoints.size(), (System.nanoTime() - start) / 1_000_000);
+        return new TarGzIndex(archive, checkpoints, entries);
+    }
+
+    /**
+     * Rewrites a tar.gz archive as a sequence of gzip members of about the given uncompressed size, so that its index
+     * gets a checkpoint at every member.
+     *
+     * @param source the source archive
+     * @param target the seekable archive to write
+     * @param memberSize the uncompressed size of each gzip member
+     * @throws IOException if the source cannot be read or the target cannot be written
+     */
+    public static void recompress(File source, File target, long memberSize) throws IOException {
+        try (InputStream inputStream = new GzipCompressorInputStream(new BufferedInputStream(new FileInputStream(source)), true);
+             OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(target))) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            boolean more = true;
+            while (more) {
+                long written = 0;
+                GzipCompressorOutputStream member = new GzipCompressorOutputStream(new NonClosingOutputStream(outputStream));
+                while (written < memberSize) {
+                    int size = inputStream.read(buffer, 0, (int) Math.min(buffer.length, memberSize - written));
+                    if (size < 0) {
+                        more = false;
+                        break;
+                    }
+                    member.write(buffer, 0, size);
+                    written += size;
+                }
+                if (written > 0 || !more) {
+                    member.close();
+                }
+            }
+        }
+    }
+
+    /** @return the number of positions where decompression can start */
+    int checkpointCount() {
+        return checkpoints.size();
+    }
+
+    /** @return the indexed archive */
+    public File archive() {
+        return archive;
+    }
+
+    /**
+     * @param prefix the name prefix, e.g. a module folder
+     * @return the entries whose name starts with the prefix, in archive order
+     */
+    public List<Entry> entries(String prefix) {
+        return entries.stream().filter(entry -> entry.name.startsWith(prefix)).collect(Collectors.toList());
+    }
+
+    /**
+     * Opens the data of a single entry, decompressing from the nearest checkpoint before it.
+     *
+     * @param entry the entry
+     * @return the entry data
+     * @throws IOException if the archive cannot be read
+     */
+    public InputStream open(Entry entry) throws IOException {
+        Checkpoint checkpoint = checkpointBefore(entry.dataOffset);
+        InputStream inputStream = openAt(checkpoint);
+        try {
+            skipTo(inputStream, entry.dataOffset - checkpoint.uncompressedOffset, entry);
+            return new EntryInputStream(inputStream, entry.size, true);
+        } catch (IOException e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Skips to the data of an entry; falling short means the archive is truncated or does not match the index.
+     */
+    private static void skipTo(InputStream inputStream, long distance, Entry entry) throws IOException {
+        long skipped = IOUtils.skip(inputStream, distance);
+        if (skipped != distance) {
+            throw new IOException(String.format("Unexpected end of archive %d bytes before entry %s",
+                distance - skipped, entry.name));
+        }
+    }
+
+    /**
+     * Extracts the files under the prefix into the folder.
+     *
+     * @param prefix the name prefix, e.g. a module folder
+     * @param folder the target folder
+     * @return the number of extracted files
+     * @throws IOException if the archive cannot be read or a file cannot be written
+     */
+    public int extract(String prefix, File folder) throws IOException {
+        Path root = folder.toPath().toAbsolutePath().normalize();
+        List<Entry> selected = entries(prefix).stream().filter(Entry::isFile).collect(Collectors.toList());
+        read(selected, (entry, data) -> {
+            Path file = root.resolve(entry.name).normalize();
+            if (!file.startsWith(root)) {
+                throw new IllegalStateException("Entry is outside of the target directory: " + entry.name);
+            }
+            File parent = file.getParent().toFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IllegalStateException("Cannot create directory: " + parent.getAbsolutePath());
+            }
+            try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long copied = channel.transferFrom(Channels.newChannel(data), 0, entry.size);
+                if (copied != entry.size) {
+                    throw new IOException("Unexpected end of archive in entry " + entry.name);
+                }
+            }
+        });
+        return selected.size();
+    }
+
+    /**
+     * Reads the data of the entries, which must be in archive order. Consecutive entries are read in one pass;
+     * decompression only restarts at a later checkpoint when that skips more than it would inflate.
+     *
+     * @param selected the entries to read
+     * @param reader the consumer of each entry
+     * @throws IOException if the archive cannot be read or the reader fails
+     */
+    public void read(List<Entry> selected, EntryReader reader) throws IOException {
+        InputStream inputStream = null;
+        long position = 0;
+        try {
+            for (Entry entry : selected) {
+                if (entry.size == 0) {
+                    reader.read(entry, new ByteArrayInputStream(new byte[0]));
+                    continue;
+                }
+                Checkpoint checkpoint = checkpointBefore(entry.dataOffset);
+                if (inputStream == null || position > entry.dataOffset || checkpoint.uncompressedOffset > position) {
+                    if (inputStream != null) {
+                        inputStream.close();
+                    }
+                    inputStream = openAt(checkpoint);
+                    position = checkpoint.uncompressedOffset;
+                }
+                skipTo(inputStream, entry.dataOffset - position, entry);
+                position = entry.dataOffset;
+
+                EntryInputStream data = new EntryInputStream(inputStream, entry.size, false);
+                reader.read(entry, data);
+                // the next skip also covers whatever the reader left of this entry
+                position = entry.dataOffset + entry.size - data.remaining;
+            }
+        } finally {
+            if (inputStream != null) {
+                inputStream.close();
+            }
+        }
+    }
+
+    private void save() throws IOException {
+        // written aside and moved into place, so that a concurrent load never sees half an index
+        File temp = File.createTempFile(archive.getName(), ".idx.tmp", archive.getAbsoluteFile().getParentFile());
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(VERSION);
+            outputStream.writeLong(archive.length());
+            outputStream.writeLong(archive.lastModified());
+            outputStream.writeInt(checkpoints.size());
+            for (Checkpoint checkpoint : checkpoints) {
+                outputStream.writeLong(checkpoint.compressedOffset);
+                outputStream.writeLong(checkpoint.uncompressedOffset);
+            }
+            outputStream.writeInt(entries.size());
+            for (Entry entry : entries) {
+                outputStream.writeUTF(entry.name);
+                outputStream.writeByte(entry.linkFlag);
+                outputStream.writeInt(entry.mode);
+                outputStream.writeLong(entry.lastModified);
+                outputStream.writeUTF(entry.linkName);
+                outputStream.writeLong(entry.dataOffset);
+                outputStream.writeLong(entry.size);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp.toPath());
+            throw e;
+        }
+        Files.move(temp.toPath(), indexFile(archive).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the tar type of the entry, or -1 for entries that are not indexed, such as global headers
+     */
+    private static byte linkFlag(TarArchiveEntry entry) {
+        if (entry.isSymbolicLink()) {
+            return TarConstants.LF_SYMLINK;
+        }
+        if (entry.isLink()) {
+            return TarConstants.LF_LINK;
+        }
+        if (entry.isDirectory()) {
+            return TarConstants.LF_DIR;
+        }
+        return entry.isFile() ? TarConstants.LF_NORMAL : -1;
+    }
+
+    private Checkpoint checkpointBefore(long uncompressedOffset) {
+        int low = 0;
+        int high = checkpoints.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (checkpoints.get(middle).uncompressedOffset <= uncompressedOffset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return checkpoints.get(low);
+    }
+
+    private InputStream openAt(Checkpoint checkpoint) throws IOException {
+        FileInputStream fileInputStream = new FileInputStream(archive);
+        try {
+            fileInputStream.getChannel().position(checkpoint.compressedOffset);
+            return new GzipCompressorInputStream(new BufferedInputStream(fileInputStream, BUFFER_SIZE), true);
+        } catch (IOException e) {
+            fileInputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Walks the gzip members of the archive and records a checkpoint at the start of a member whenever the previous
+     * checkpoint is at least the interval behind.
+     */
+    private static List<Checkpoint> scanMembers(File archive, long checkpointInterval) throws IOException {
+        List<Checkpoint> checkpoints = new ArrayList<>();
+        byte[] input = new byte[BUFFER_SIZE];
+        byte[] output = new byte[BUFFER_SIZE];
+        try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+            long compressedOffset = 0;
+            long uncompressedOffset = 0;
+            while (compressedOffset < channel.size()) {
+                int headerLength = gzipHeaderLength(channel, compressedOffset);
+                if (headerLength < 0) {
+                    // trailing padding after the last member
+                    break;
+                }
+                if (checkpoints.isEmpty()
+                    || uncompressedOffset - checkpoints.get(checkpoints.size() - 1).uncompressedOffset >= checkpointInterval) {
+                    checkpoints.add(new Checkpoint(compressedOffset, uncompressedOffset));
+                }
+
+                Inflater inflater = new Inflater(true);
+                try {
+                    long position = compressedOffset + headerLength;
+                    while (!inflater.finished()) {
+                        if (inflater.needsInput()) {
+                            int size = channel.read(ByteBuffer.wrap(input), position);
+                            if (size <= 0) {
+                                throw new IOException("Truncated gzip member at offset " + compressedOffset);
+                            }
+                            inflater.setInput(input, 0, size);
+                            position += size;
+                        }
+                        uncompressedOffset += inflater.inflate(output);
+                    }
+                    // skip the CRC32 and ISIZE trailer
+                    compressedOffset = position - inflater.getRemaining() + 8;
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt gzip member at offset " + compressedOffset, e);
+                } finally {
+                    inflater.end();
+                }
+            }
+        }
+        if (checkpoints.isEmpty()) {
+            checkpoints.add(new Checkpoint(0, 0));
+        }
+        return Collections.unmodifiableList(checkpoints);
+    }
+
+    /**
+     * @return the length of the gzip member header at the offset, or -1 if there is no member there
+     */
+    private static int gzipHeaderLength(FileChannel channel, long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(BUFFER_SIZE);
+        channel.read(header, offset);
+        header.flip();
+        if (header.remaining() < 10 || (header.get(0) & 0xff) != 0x1f || (header.get(1) & 0xff) != 0x8b) {
+            return -1;
+        }
+        int flags = header.get(3) & 0xff;
+        int position = 10;
+        if ((flags & 0x04) != 0) {
+            position += 2 + ((header.get(position) & 0xff) | (header.get(position + 1) & 0xff) << 8);
+        }
+        if ((flags & 0x08) != 0) {
+            while (header.get(position++) != 0) {
+                continue;
+            }
+        }
+        if ((flags & 0x10) != 0) {
+            while (header.get(position++) != 0) {
+                continue;
+            }
+        }
+        if ((flags & 0x02) != 0) {
+            position += 2;
+        }
+        return position;
+    }
+
+    private static File indexFile(File archive) {
+        return new File(archive.getPath() + ".idx");
+    }
+
+    /**
+     * Reads at most the size of an entry, and closes the decompressing stream with it if it owns that stream.
+     */
+    private static final class EntryInputStream extends FilterInputStream {
+        private final boolean ownsStream;
+        private long remaining;
+
+        private EntryInputStream(InputStream inputStream, long size, boolean ownsStream) {
+            super(inputStream);
+            this.remaining = size;
+            this.ownsStream = ownsStream;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (ownsStream) {
+                super.close();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int size = in.read(b, off, (int) Math.min(len, remaining));
+            if (size > 0) {
+                remaining -= size;
+            }
+            return size;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    private static final class NonClosingOutputStream extends OutputStream {
+        private final OutputStream outputStream;
+
+        private NonClosingOutputStream(OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            outputStream.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            outputStream.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            outputStream.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            outputStream.flush();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import com.azure.core.management.exception.ManagementException;
+import com.azure.core.management.polling.PollResult;
+import com.azure.resourcemanager.AzureResourceManager;
+import com.azure.resourcemanager.resources.models.ResourceGroup;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deletes resource groups with bounded parallelism and tracks every deletion to completion.
+ * <p>
+ * Deletions are polled through the shared {@link LongRunningOperationPoller}. Throttling, conflicts and server
+ * errors are retried with exponential backoff; a resource group that no longer exists counts as deleted.
+ * The latency and outcome of each deletion are reported when it finishes.
+ */
+public final class TeardownQueue {
+
+    private final AzureResourceManager azureResourceManager;
+    private final OperationLimiter limiter;
+    private final int maxAttempts;
+    private final List<CompletableFuture<Deletion>> deletions = new CopyOnWriteArrayList<>();
+    private final List<CompletableFuture<Void>> acceptances = new CopyOnWriteArrayList<>();
+
+    /**
+     * Outcome of deleting one resource group.
+     */
+    public static final class Deletion {
+        private final String resourceGroup;
+        private final int attempts;
+        private final Duration duration;
+        private final Throwable error;
+
+        private Deletion(String resourceGroup, int attempts, Duration duration, Throwable error) {
+            this.resourceGroup = resourceGroup;
+            this.attempts = attempts;
+            this.duration = duration;
+            this.error = error;
+        }
+
+        /** @return the resource group name */
+        public String resourceGroup() {
+            return resourceGroup;
+        }
+
+        /** @return the number of delete requests issued */
+        public int attempts() {
+            return attempts;
+        }
+
+        /** @return the time from queueing to completion */
+        public Duration duration() {
+            return duration;
+        }
+
+        /** @return the failure, or null if the resource group is gone */
+        public Throwable error() {
+            return error;
+        }
+    }
+
+    /**
+     * Creates a teardown queue.
+     *
+     * @param azureResourceManager instance of the azure client
+     * @param parallelism the maximum number of deletions in flight
+     * @param maxAttempts the number of delete requests per resource group before giving up
+     */
+    public TeardownQueue(AzureResourceManager azureResourceManager, int parallelism, int maxAttempts) {
+        this.azureResourceManager = azureResourceManager;
+        this.limiter = new OperationLimiter("resource group deletion", parallelism);
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Queues a resource group for deletion.
+     *
+     * @param resourceGroup the resource group name
+     * @return a future completed when the deletion finished or finally failed; it never completes exceptionally
+     */
+    public CompletableFuture<Deletion> enqueue(String resourceGroup) {
+        long start = System.nanoTime();
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<Void> accepted = new CompletableFuture<>();
+        CompletableFuture<Deletion> deletion = limiter.limit(Mono.defer(() -> {
+            attempts.incrementAndGet();
+            return Mono.fromCallable(() -> azureResourceManager.resourceGroups().manager().serviceClient()
+                    .getResourceGroups().beginDelete(resourceGroup, null))
+                .subscribeOn(Schedulers.boundedElastic())
+                .doOnNext(poller -> accepted.complete(null))
+                .flatMap(poller -> Mono.fromFuture(LongRunningOperationPoller.shared().<PollResult<Void>, Void>track(
+                    "delete resource group " + resourceGroup, LongRunningOperationPoller.OperationType.DELETION, poller)))
+                .then();
+        })
+            .onErrorResume(TeardownQueue::isNotFound, e -> Mono.empty())
+            .retryWhen(Retry.backoff(maxAttempts - 1, Duration.ofSeconds(10))
+                .filter(TeardownQueue::isTransient)
+                .doBeforeRetry(signal -> System.out.printf("Retrying deletion of %s after: %s%n",
+                    resourceGroup, signal.failure().getMessage()))))
+            .then(Mono.fromCallable(() -> new Deletion(resourceGroup, attempts.get(), Duration.ofNanos(System.nanoTime() - start), null)))
+            .onErrorResume(e -> Mono.just(new Deletion(resourceGroup, attempts.get(), Duration.ofNanos(System.nanoTime() - start), e)))
+            .doOnNext(TeardownQueue::report)
+            .toFuture();
+        deletion.whenComplete((result, error) -> accepted.complete(null));
+        deletions.add(deletion);
+        acceptances.add(accepted);
+        return deletion;
+    }
+
+    /**
+     * Queues every resource group carrying the tag for deletion.
+     *
+     * @param tagName the tag name
+     * @param tagValue the tag value
+     * @return the futures of the queued deletions
+     */
+    public List<CompletableFuture<Deletion>> enqueueTagged(String tagName, String tagValue) {
+        List<CompletableFuture<Deletion>> queued = new ArrayList<>();
+        for (ResourceGroup resourceGroup : azureResourceManager.resourceGroups().listByTag(tagName, tagValue)) {
+            queued.add(enqueue(resourceGroup.name()));
+        }
+        return queued;
+    }
+
+    /** @return the number of deletions not finished yet */
+    public long pending() {
+        return deletions.stream().filter(deletion -> !deletion.isDone()).count();
+    }
+
+    /**
+     * Waits until the delete request of every queued resource group has been accepted, or its deletion finished,
+     * without waiting for the deletions themselves. Tracking continues on daemon threads for as long as the
+     * process lives.
+     */
+    public void awaitAccepted() {
+        for (CompletableFuture<Void> accepted : acceptances) {
+            accepted.join();
+        }
+    }
+
+    /**
+     * Waits for every queued deletion.
+     *
+     * @return the outcome of every deletion queued so far
+     */
+    public List<Deletion> awaitAll() {
+        List<Deletion> results = new ArrayList<>();
+        for (CompletableFuture<Deletion> deletion : deletions) {
+            results.add(deletion.join());
+        }
+        long failed = results.stream().filter(deletion -> deletion.error() != null).count();
+        System.out.printf("Deleted %d of %d resource groups%n", results.size() - failed, results.size());
+        return results;
+    }
+
+    private static void report(Deletion deletion) {
+        if (deletion.error() == null) {
+            System.out.printf("Deleted resource group %s in %d s (%d attempts)%n",
+                deletion.resourceGroup(), deletion.duration().getSeconds(), deletion.attempts());
+        } else {
+            System.out.printf("Failed to delete resource group %s after %d s (%d attempts): %s%n",
+                deletion.resourceGroup(), deletion.duration().getSeconds(), deletion.attempts(), deletion.error().getMessage());
+        }
+    }
+
+    private static boolean isNotFound(Throwable e) {
+        return e instanceof ManagementException && ((ManagementException) e).getResponse() != null
+            && ((ManagementException) e).getResponse().getStatusCode() == 404;
+    }
+
+    private static boolean isTransient(Throwable e) {
+        if (e instanceof ManagementException) {
+            if (((ManagementException) e).getResponse() == null) {
+                return false;
+            }
+            int code = ((ManagementException) e).getResponse().getStatusCode();
+            return code == 409 || code == 429 || code >= 500;
+        }
+        // the operation itself failed, e.g. a contained resource was still locked
+        return e instanceof IllegalStateException;
+    }
+}
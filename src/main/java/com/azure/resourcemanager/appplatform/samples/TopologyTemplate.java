@@ -0,0 +1,239 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import com.azure.core.management.Region;
+import com.azure.resourcemanager.AzureResourceManager;
+import com.azure.resourcemanager.resources.models.Deployment;
+import com.azure.resourcemanager.resources.models.DeploymentMode;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The topology of {@link ManageSpringCloud#runSample} as a single ARM template: the spring cloud service and its apps,
+ * the CNAME record, the service certificate and the custom domain.
+ * <p>
+ * Submitted as one deployment, ARM creates the resources in dependency order and in parallel where possible,
+ * instead of one fluent call and its long-running operation polling per resource. Two parts of the fluent sample
+ * are not ARM resources and stay outside the template:
+ * <ul>
+ *     <li>the App Service domain purchase, which needs a legal agreement consent; the template takes its DNS zone</li>
+ *     <li>the app source upload and deployments, since the upload URL only exists once the app does</li>
+ * </ul>
+ * A Key Vault certificate cannot be created through ARM either, and a PKCS12 secret is not a certificate to the
+ * service. The certificate is imported into an existing vault before the deployment, and the template references it
+ * by vault and certificate name.
+ * <p>
+ * Resource names are template parameters with the generated names as default values, and the thumbprint is a
+ * parameter without default, so a dry run can write the template for inspection and diffing.
+ */
+public final class TopologyTemplate {
+
+    private static final String SPRING_API_VERSION = "2020-07-01";
+    private static final String KEY_VAULT_API_VERSION = "2019-09-01";
+    private static final String DNS_API_VERSION = "2018-05-01";
+
+    private static final String SPRING = "Microsoft.AppPlatform/Spring";
+    private static final String SPRING_APP = "Microsoft.AppPlatform/Spring/apps";
+    private static final String SPRING_CERTIFICATE = "Microsoft.AppPlatform/Spring/certificates";
+    private static final String SPRING_DOMAIN = "Microsoft.AppPlatform/Spring/apps/domains";
+    private static final String VAULT = "Microsoft.KeyVault/vaults";
+    private static final String CNAME = "Microsoft.Network/dnsZones/CNAME";
+
+    private static final JsonNodeFactory JSON = JsonNodeFactory.instance;
+
+    private final Map<String, String> names = new LinkedHashMap<>();
+    private final List<AppDefinition> apps = new ArrayList<>();
+    private String domainApp;
+    private String domainLabel;
+
+    /**
+     * Creates the template of a topology.
+     *
+     * @param region the region of the service
+     * @param serviceName the spring cloud service name
+     * @param vaultName the existing key vault, in the target resource group, holding the certificate
+     * @param certName the certificate name, in the key vault and in the service
+     * @param zoneName the existing DNS zone in the target resource group
+     */
+    public TopologyTemplate(Region region, String serviceName, String vaultName, String certName, String zoneName) {
+        names.put("location", region.name());
+        names.put("serviceName", serviceName);
+        names.put("vaultName", vaultName);
+        names.put("certName", certName);
+        names.put("zoneName", zoneName);
+    }
+
+    /**
+     * Adds an app.
+     *
+     * @param name the app name
+     * @param publicEndpoint whether the app has a public endpoint
+     * @param httpsOnly whether the app only accepts HTTPS
+     * @return this template
+     */
+    public TopologyTemplate withApp(String name, boolean publicEndpoint, boolean httpsOnly) {
+        apps.add(new AppDefinition(name, publicEndpoint, httpsOnly));
+        return this;
+    }
+
+    /**
+     * Binds {@code <label>.<zone>} to an app, with a CNAME record to the app and the certificate for TLS.
+     *
+     * @param app the app name
+     * @param label the record name in the zone
+     * @return this template
+     */
+    public TopologyTemplate withCustomDomain(String app, String label) {
+        this.domainApp = app;
+        this.domainLabel = label;
+        return this;
+    }
+
+    /** @return the template JSON */
+    public String toJson() {
+        try {
+            return new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(template());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes the template for inspection without deploying anything.
+     *
+     * @param file the template file
+     * @throws IOException if the file cannot be written
+     */
+    public void writeTo(File file) throws IOException {
+        Files.write(file.toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+        System.out.printf("Wrote ARM template with %d resources to %s%n", template().withArray("resources").size(), file);
+    }
+
+    /**
+     * Submits the template as one incremental deployment and waits for it to finish.
+     *
+     * @param azureResourceManager the azure client
+     * @param resourceGroupName the existing resource group, which holds the DNS zone
+     * @param deploymentName the deployment name
+     * @param parameters values of the parameters without defaults: certificateThumbprint
+     * @return the deployment
+     */
+    public Deployment deploy(AzureResourceManager azureResourceManager, String resourceGroupName, String deploymentName,
+                             Map<String, String> parameters) {
+        ObjectNode parameterValues = JSON.objectNode();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            parameterValues.putObject(parameter.getKey()).put("value", parameter.getValue());
+        }
+        System.out.printf("Deploying ARM template %s to resource group %s ...%n", deploymentName, resourceGroupName);
+        long start = System.nanoTime();
+        try {
+            Deployment deployment = azureResourceManager.deployments().define(deploymentName)
+                .withExistingResourceGroup(resourceGroupName)
+                .withTemplate(toJson())
+                .withParameters(new ObjectMapper().writeValueAsString(parameterValues))
+                .withMode(DeploymentMode.INCREMENTAL)
+                .create();
+            System.out.printf("Deployed ARM template %s in %d s: %s%n", deploymentName,
+                (System.nanoTime() - start) / 1_000_000_000L, deployment.provisioningState());
+            return deployment;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ObjectNode template() {
+        ObjectNode template = JSON.objectNode();
+        template.put("$schema", "https://schema.management.azure.com/schemas/2019-04-01/deploymentTemplate.json#");
+        template.put("contentVersion", "1.0.0.0");
+
+        ObjectNode parameters = template.putObject("parameters");
+        for (Map.Entry<String, String> name : names.entrySet()) {
+            parameters.putObject(name.getKey()).put("type", "string").put("defaultValue", name.getValue());
+        }
+        parameters.putObject("certificateThumbprint").put("type", "string");
+
+        ArrayNode resources = template.putArray("resources");
+
+        ObjectNode service = resource(resources, SPRING, SPRING_API_VERSION, "[parameters('serviceName')]");
+        service.put("location", "[parameters('location')]");
+        service.putObject("sku").put("name", "S0").put("tier", "Standard");
+
+        for (AppDefinition app : apps) {
+            ObjectNode resource = resource(resources, SPRING_APP, SPRING_API_VERSION,
+                "[concat(parameters('serviceName'), '/" + app.name + "')]",
+                "[resourceId('" + SPRING + "', parameters('serviceName'))]");
+            resource.putObject("properties")
+                .put("public", app.publicEndpoint)
+                .put("httpsOnly", app.httpsOnly);
+        }
+
+        String serviceId = "[resourceId('" + SPRING + "', parameters('serviceName'))]";
+        String certificateId = "[resourceId('" + SPRING_CERTIFICATE + "', parameters('serviceName'), parameters('certName'))]";
+        ObjectNode certificate = resource(resources, SPRING_CERTIFICATE, SPRING_API_VERSION,
+            "[concat(parameters('serviceName'), '/', parameters('certName'))]",
+            serviceId);
+        certificate.putObject("properties")
+            .put("vaultUri", "[reference(resourceId('" + VAULT + "', parameters('vaultName')), '"
+                + KEY_VAULT_API_VERSION + "').vaultUri]")
+            .put("keyVaultCertName", "[parameters('certName')]");
+
+        if (domainApp != null) {
+            String appId = "resourceId('" + SPRING_APP + "', parameters('serviceName'), '" + domainApp + "')";
+            String recordId = "[resourceId('" + CNAME + "', parameters('zoneName'), '" + domainLabel + "')]";
+            ObjectNode record = resource(resources, CNAME, DNS_API_VERSION,
+                "[concat(parameters('zoneName'), '/" + domainLabel + "')]", "[" + appId + "]");
+            ObjectNode recordProperties = record.putObject("properties");
+            recordProperties.put("TTL", 3600);
+            recordProperties.putObject("CNAMERecord").put("cname", "[reference(" + appId + ").fqdn]");
+
+            ObjectNode domain = resource(resources, SPRING_DOMAIN, SPRING_API_VERSION,
+                "[concat(parameters('serviceName'), '/" + domainApp + "/" + domainLabel + ".', parameters('zoneName'))]",
+                "[" + appId + "]", recordId, certificateId);
+            domain.putObject("properties")
+                .put("thumbprint", "[parameters('certificateThumbprint')]")
+                .put("certName", "[parameters('certName')]");
+        }
+        return template;
+    }
+
+    private static ObjectNode resource(ArrayNode resources, String type, String apiVersion, String name,
+                                       String... dependsOn) {
+        ObjectNode resource = resources.addObject();
+        resource.put("type", type);
+        resource.put("apiVersion", apiVersion);
+        resource.put("name", name);
+        if (dependsOn.length > 0) {
+            ArrayNode dependencies = resource.putArray("dependsOn");
+            for (String dependency : dependsOn) {
+                dependencies.add(dependency);
+            }
+        }
+        return resource;
+    }
+
+    private static final class AppDefinition {
+        private final String name;
+        private final boolean publicEndpoint;
+        private final boolean httpsOnly;
+
+        private AppDefinition(String name, boolean publicEndpoint, boolean httpsOnly) {
+            this.name = name;
+            this.publicEndpoint = publicEndpoint;
+            this.httpsOnly = httpsOnly;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import com.azure.resourcemanager.resources.fluentcore.model.Appliable;
+import com.azure.resourcemanager.resources.fluentcore.model.Refreshable;
+import com.azure.resourcemanager.resources.fluentcore.model.Updatable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Buffers changes to resources within a scope and applies them as one fluent update per resource when the scope
+ * closes, instead of one {@code update()...apply()} round-trip, and the long-running operation wait that comes with
+ * it, per change.
+ * <p>
+ * Changes are only recorded until the flush, which reads each resource afresh, starts its {@code Update} and
+ * chains the changes of the same resource ID on it, so the update carries the state of the resource at the time
+ * it is applied rather than when the first change was made. Child resources added by the changes, such as custom
+ * domains or certificates, are still created by the apply. Resources are applied one after another in the order
+ * they were first changed, so a change may rely on an earlier resource having been updated.
+ */
+public final class UpdateCoalescer implements AutoCloseable {
+
+    private final Map<String, PendingUpdate<?, ?>> pending = new LinkedHashMap<>();
+    private int changes;
+
+    /**
+     * Adds a change to the pending update of a resource.
+     *
+     * @param resourceId the resource ID the changes are merged by
+     * @param resource the resource to update
+     * @param change the change to apply to the update
+     * @param <T> type of the resource
+     * @param <U> type of the fluent update
+     * @return this coalescer
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T extends Updatable<U> & Refreshable<T>, U extends Appliable<?>> UpdateCoalescer update(
+        String resourceId, T resource, UnaryOperator<U> change) {
+        PendingUpdate<T, U> update = (PendingUpdate<T, U>) pending.computeIfAbsent(resourceId,
+            id -> new PendingUpdate<>(resource));
+        update.changes.add(change);
+        changes++;
+        return this;
+    }
+
+    /** @return the number of resources with pending changes */
+    public synchronized int pending() {
+        return pending.size();
+    }
+
+    /**
+     * Applies the pending updates and starts a new scope.
+     *
+     * @return the updated resources keyed by resource ID
+     */
+    public Mono<Map<String, Object>> flushAsync() {
+        List<Tuple2<String, PendingUpdate<?, ?>>> updates = new ArrayList<>();
+        int changeCount;
+        synchronized (this) {
+            for (Map.Entry<String, PendingUpdate<?, ?>> entry : pending.entrySet()) {
+                updates.add(Tuples.of(entry.getKey(), entry.getValue()));
+            }
+            changeCount = changes;
+            pending.clear();
+            changes = 0;
+        }
+        if (updates.isEmpty()) {
+            return Mono.just(new LinkedHashMap<>());
+        }
+        long start = System.nanoTime();
+        return Flux.fromIterable(updates)
+            .concatMap(update -> update.getT2().applyAsync()
+                .map(applied -> Tuples.<String, Object>of(update.getT1(), applied)))
+            .collectMap(Tuple2::getT1, Tuple2::getT2, LinkedHashMap::new)
+            .doOnSuccess(applied -> System.out.printf("Applied %d changes as %d updates in %d s%n",
+                changeCount, updates.size(), Duration.ofNanos(System.nanoTime() - start).getSeconds()));
+    }
+
+    /**
+     * Applies the pending updates and waits for them.
+     *
+     * @return the updated resources keyed by resource ID
+     */
+    public Map<String, Object> flush() {
+        return flushAsync().block();
+    }
+
+    /**
+     * Closes the scope, applying the pending updates.
+     */
+    @Override
+    public void close() {
+        flush();
+    }
+
+    private static final class PendingUpdate<T extends Updatable<U> & Refreshable<T>, U extends Appliable<?>> {
+        private final T resource;
+        private final List<UnaryOperator<U>> changes = new ArrayList<>();
+
+        private PendingUpdate(T resource) {
+            this.resource = resource;
+        }
+
+        private Mono<?> applyAsync() {
+            return resource.refreshAsync().flatMap(fresh -> {
+                U update = fresh.update();
+                for (UnaryOperator<U> change : changes) {
+                    update = change.apply(update);
+                }
+                return update.applyAsync();
+            });
+        }
+    }
+}
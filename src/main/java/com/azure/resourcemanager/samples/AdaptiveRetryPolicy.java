@@ -0,0 +1,373 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.samples;
+
+import com.azure.core.http.HttpHeaders;
+import com.azure.core.http.HttpMethod;
+import com.azure.core.http.HttpPipelineCallContext;
+import com.azure.core.http.HttpPipelineNextPolicy;
+import com.azure.core.http.HttpPipelinePosition;
+import com.azure.core.http.HttpRequest;
+import com.azure.core.http.HttpResponse;
+import com.azure.core.http.policy.HttpPipelinePolicy;
+import com.azure.core.util.logging.ClientLogger;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retries failed requests with exponential backoff and decorrelated jitter, within a retry budget per host, and
+ * fails fast while a host is unhealthy.
+ * <p>
+ * Requests answered 408, 429, 500, 502, 503 or 504, or failed with an I/O error or a timeout, are retried if their
+ * method is idempotent (GET, HEAD, PUT, DELETE or OPTIONS). Other requests, such as a POST, are only retried when the
+ * server cannot have acted on them: the connection failed, or a 429 or 503 asked for a retry with
+ * {@code Retry-After}. The wait
+ * before a retry is the {@code Retry-After} of the response if there is one, otherwise a random delay between the
+ * base delay and three times the previous delay, capped at the maximum delay, so that clients failing together do
+ * not retry together. Retries spend tokens of the host's budget, which every request refills by a fraction of a
+ * token and time by a minimum rate, so that an outage cannot multiply the load on the host by the retry count.
+ * <p>
+ * A host failing several requests in a row trips its circuit breaker. While it is open, requests to the host are
+ * answered locally with a 503 carrying the remaining open time as {@code Retry-After}; once the open time is over,
+ * one trial request decides whether the breaker closes or opens again; a trial cancelled before its outcome lets
+ * the next request be the trial.
+ * <p>
+ * The policy replaces the pipeline's {@code RetryPolicy} and belongs where it would be: before authentication and
+ * before the per-retry policies, which then see every attempt.
+ */
+public final class AdaptiveRetryPolicy implements HttpPipelinePolicy {
+
+    private static final ClientLogger LOGGER = new ClientLogger(AdaptiveRetryPolicy.class);
+
+    private static final long TRIAL = -1;
+
+    private static final Set<HttpMethod> IDEMPOTENT_METHODS =
+        EnumSet.of(HttpMethod.GET, HttpMethod.HEAD, HttpMethod.PUT, HttpMethod.DELETE, HttpMethod.OPTIONS);
+
+    private static final AdaptiveRetryPolicy SHARED = new AdaptiveRetryPolicy(
+        Integer.getInteger("retry.maxRetries", 5),
+        Duration.ofMillis(Long.getLong("retry.baseDelayMillis", 800)),
+        Duration.ofSeconds(Long.getLong("retry.maxDelaySeconds", 60)));
+
+    private final int maxRetries;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+    private double budgetRatio = 0.2;
+    private double budgetPerSecond = 1;
+    private double budgetCapacity = 10;
+    private int failureThreshold = 5;
+    private long openNanos = TimeUnit.SECONDS.toNanos(30);
+
+    private final ConcurrentMap<String, HostState> hosts = new ConcurrentHashMap<>();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+    private final AtomicLong shortCircuited = new AtomicLong();
+
+    /**
+     * Creates a policy with its own host states; prefer {@link #shared()}.
+     *
+     * @param maxRetries the maximum number of retries of a request
+     * @param baseDelay the shortest wait before a retry
+     * @param maxDelay the longest wait before a retry, unless the response asks for a longer one
+     */
+    public AdaptiveRetryPolicy(int maxRetries, Duration baseDelay, Duration maxDelay) {
+        this.maxRetries = maxRetries;
+        this.baseDelayNanos = baseDelay.toNanos();
+        this.maxDelayNanos = maxDelay.toNanos();
+    }
+
+    /**
+     * @return the policy shared by all pipelines of the JVM, configured by -Dretry.maxRetries (default 5),
+     * -Dretry.baseDelayMillis (default 800) and -Dretry.maxDelaySeconds (default 60)
+     */
+    public static AdaptiveRetryPolicy shared() {
+        return SHARED;
+    }
+
+    /**
+     * Creates a policy for requests to apps that answer 502 or 503 while they start: 5 retries 20 to 40 seconds apart,
+     * about 2.5 minutes in all, and no circuit breaker, so that a warming app never makes its host fail fast.
+     *
+     * @return a new policy with its own host states
+     */
+    public static AdaptiveRetryPolicy forProbes() {
+        return new AdaptiveRetryPolicy(5, Duration.ofSeconds(20), Duration.ofSeconds(40)).withoutCircuitBreaker();
+    }
+
+    /**
+     * Sets the retry budget of each host, by default 20% of the requests plus 1 per second, up to 10 retries.
+     *
+     * @param ratio the retries earned by each request
+     * @param perSecond the retries earned every second, whatever the traffic
+     * @param capacity the most retries a host can save up
+     * @return this policy
+     */
+    public AdaptiveRetryPolicy withRetryBudget(double ratio, double perSecond, double capacity) {
+        this.budgetRatio = ratio;
+        this.budgetPerSecond = perSecond;
+        this.budgetCapacity = capacity;
+        return this;
+    }
+
+    /**
+     * Sets when the circuit breaker of a host opens, by default after 5 failures in a row for 30 seconds.
+     *
+     * @param failureThreshold the number of failures in a row that opens the breaker
+     * @param openDuration how long the breaker stays open before a trial request
+     * @return this policy
+     */
+    public AdaptiveRetryPolicy withCircuitBreaker(int failureThreshold, Duration openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+        return this;
+    }
+
+    /**
+     * Never opens the circuit breaker of a host; failed requests are still retried within the budget.
+     *
+     * @return this policy
+     */
+    public AdaptiveRetryPolicy withoutCircuitBreaker() {
+        this.failureThreshold = Integer.MAX_VALUE;
+        return this;
+    }
+
+    /** @return the number of retries sent */
+    public long retries() {
+        return retries.get();
+    }
+
+    /** @return the number of retries not sent because the host's budget was spent */
+    public long budgetExhausted() {
+        return budgetExhausted.get();
+    }
+
+    /** @return the number of requests answered locally while their host's breaker was open */
+    public long shortCircuited() {
+        return shortCircuited.get();
+    }
+
+    @Override
+    public HttpPipelinePosition getPipelinePosition() {
+        // in place of the retry policy, so that authentication and the per-retry policies run for each attempt
+        return HttpPipelinePosition.PER_CALL;
+    }
+
+    @Override
+    public Mono<HttpResponse> process(HttpPipelineCallContext context, HttpPipelineNextPolicy next) {
+        HttpRequest request = context.getHttpRequest();
+        HostState host = hosts.computeIfAbsent(request.getUrl().getHost().toLowerCase(Locale.ROOT), HostState::new);
+        host.deposit();
+        return attempt(context, next, request, host, 0, baseDelayNanos);
+    }
+
+    private Mono<HttpResponse> attempt(HttpPipelineCallContext context, HttpPipelineNextPolicy next,
+                                       HttpRequest original, HostState host, int tryCount, long previousDelayNanos) {
+        long openForNanos = host.admit();
+        if (openForNanos > 0) {
+            shortCircuited.incrementAndGet();
+            return Mono.just(unavailableResponse(original, Duration.ofNanos(openForNanos)));
+        }
+        boolean trial = openForNanos == TRIAL;
+        context.setHttpRequest(original.copy());
+        return next.clone().process()
+            .doFinally(signal -> {
+                if (trial && signal == SignalType.CANCEL) {
+                    // the trial will never report, let the next request be the trial instead
+                    host.abandonTrial();
+                }
+            })
+            .materialize()
+            .flatMap(signal -> {
+                HttpResponse response = signal.get();
+                Throwable error = signal.getThrowable();
+                Mono<HttpResponse> outcome = error != null ? Mono.error(error) : Mono.justOrEmpty(response);
+                if (error != null ? !isRetryable(error) : response == null || !isRetryable(response.getStatusCode())) {
+                    host.record(false);
+                    return outcome;
+                }
+                host.record(error != null || response.getStatusCode() != 408 && response.getStatusCode() != 429);
+
+                if (tryCount >= maxRetries || !isSafeToRetry(original.getHttpMethod(), error, response)) {
+                    return outcome;
+                }
+                if (!host.withdraw()) {
+                    budgetExhausted.incrementAndGet();
+                    return outcome;
+                }
+                long jitterNanos = decorrelatedJitter(previousDelayNanos);
+                long delayNanos = response == null ? jitterNanos
+                    : ArmThrottlingPolicy.retryAfter(response, Duration.ofNanos(jitterNanos)).toNanos();
+                Mono<HttpResponse> fallback = outcome;
+                if (response != null) {
+                    // release the connection for the wait, the status and headers are enough to report the failure
+                    HttpResponse released = new BufferedResponse(response.getRequest(), response.getStatusCode(),
+                        new HttpHeaders(response.getHeaders()), new byte[0]);
+                    response.close();
+                    fallback = Mono.just(released);
+                }
+                Mono<HttpResponse> lastOutcome = fallback;
+                retries.incrementAndGet();
+                LOGGER.info("retry {} request to {} in {} ms, attempt {}", original.getHttpMethod(),
+                    original.getUrl(), TimeUnit.NANOSECONDS.toMillis(delayNanos), tryCount + 1);
+                return Mono.delay(Duration.ofNanos(delayNanos)).then(Mono.defer(() -> {
+                    if (host.isOpen()) {
+                        // the host went down meanwhile, report the last outcome rather than short-circuit
+                        return lastOutcome;
+                    }
+                    return attempt(context, next, original, host, tryCount + 1, jitterNanos);
+                }));
+            });
+    }
+
+    private long decorrelatedJitter(long previousDelayNanos) {
+        long upper = Math.max(baseDelayNanos + 1, Math.min(maxDelayNanos, previousDelayNanos * 3));
+        return Math.min(maxDelayNanos, ThreadLocalRandom.current().nextLong(baseDelayNanos, upper));
+    }
+
+    private static boolean isRetryable(int statusCode) {
+        return statusCode == 408 || statusCode == 429 || statusCode == 500 || statusCode == 502
+            || statusCode == 503 || statusCode == 504;
+    }
+
+    /**
+     * @return whether sending the request again cannot repeat an effect the server may already have applied
+     */
+    private static boolean isSafeToRetry(HttpMethod method, Throwable error, HttpResponse response) {
+        if (IDEMPOTENT_METHODS.contains(method)) {
+            return true;
+        }
+        if (error != null) {
+            for (Throwable cause = Exceptions.unwrap(error); cause != null; cause = cause.getCause()) {
+                // the request never reached the server
+                if (cause instanceof ConnectException || cause instanceof UnknownHostException) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        int statusCode = response.getStatusCode();
+        return (statusCode == 429 || statusCode == 503) && ArmThrottlingPolicy.retryAfter(response, null) != null;
+    }
+
+    private static boolean isRetryable(Throwable error) {
+        for (Throwable cause = Exceptions.unwrap(error); cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException || cause instanceof TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Retry budget and circuit breaker of one host.
+     */
+    private final class HostState {
+        private final String host;
+        private double tokens = budgetCapacity;
+        private long refilledAt = System.nanoTime();
+        private int failures;
+        private long openUntil;
+        private boolean trialInFlight;
+
+        private HostState(String host) {
+            this.host = host;
+        }
+
+        private synchronized void deposit() {
+            refill();
+            tokens = Math.min(budgetCapacity, tokens + budgetRatio);
+        }
+
+        private synchronized boolean withdraw() {
+            refill();
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+
+        /**
+         * Lets a request through the breaker.
+         *
+         * @return 0 to send the request, {@link #TRIAL} to send it as the trial request of an open breaker, or the
+         * time left before the breaker lets a trial request through
+         */
+        private synchronized long admit() {
+            if (openUntil == 0) {
+                return 0;
+            }
+            long left = openUntil - System.nanoTime();
+            if (left > 0) {
+                return left;
+            }
+            if (trialInFlight) {
+                return baseDelayNanos;
+            }
+            trialInFlight = true;
+            return TRIAL;
+        }
+
+        private synchronized void abandonTrial() {
+            trialInFlight = false;
+        }
+
+        private synchronized boolean isOpen() {
+            return openUntil != 0 && openUntil - System.nanoTime() > 0;
+        }
+
+        private synchronized void record(boolean failure) {
+            if (!failure) {
+                if (openUntil != 0) {
+                    System.out.printf("Host %s recovered, closing its circuit breaker%n", host);
+                }
+                failures = 0;
+                openUntil = 0;
+                trialInFlight = false;
+                return;
+            }
+            failures++;
+            if (trialInFlight || openUntil == 0 && failures >= failureThreshold) {
+                System.out.printf("Host %s failed %d requests in a row, failing fast for %d s%n",
+                    host, failures, TimeUnit.NANOSECONDS.toSeconds(openNanos));
+                openUntil = System.nanoTime() + openNanos;
+                trialInFlight = false;
+            }
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(budgetCapacity, tokens + (now - refilledAt) * budgetPerSecond / TimeUnit.SECONDS.toNanos(1));
+            refilledAt = now;
+        }
+    }
+
+    private static HttpResponse unavailableResponse(HttpRequest request, Duration retryAfter) {
+        long seconds = Math.max(1, retryAfter.getSeconds());
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Retry-After", Long.toString(seconds));
+        headers.set("Content-Type", "application/json");
+        byte[] body = String.format("{\"error\":{\"code\":\"CircuitOpen\",\"message\":"
+            + "\"Request failed fast, %s is unhealthy, retry after %d seconds.\"}}", request.getUrl().getHost(), seconds)
+            .getBytes(StandardCharsets.UTF_8);
+        return new BufferedResponse(request, 503, headers, body);
+    }
+}
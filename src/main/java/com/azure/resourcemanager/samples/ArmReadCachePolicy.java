@@ -0,0 +1,277 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.samples;
+
+import com.azure.core.http.HttpHeaders;
+import com.azure.core.http.HttpMethod;
+import com.azure.core.http.HttpPipelineCallContext;
+import com.azure.core.http.HttpPipelineNextPolicy;
+import com.azure.core.http.HttpPipelinePosition;
+import com.azure.core.http.HttpRequest;
+import com.azure.core.http.HttpResponse;
+import com.azure.core.http.policy.HttpPipelinePolicy;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Read-through cache of ARM GET responses, fresh for a TTL and revalidated with {@code If-None-Match} afterwards.
+ * <p>
+ * A fresh entry is served from memory. A stale entry with an ETag is revalidated, and a 304 is answered with the
+ * cached body and renews the entry. The cache is bounded by entry count and total body bytes, evicting the least
+ * recently used entries first. Any write (PUT, PATCH, POST or DELETE) invalidates the entries of the written path,
+ * its ancestors (for example the list of the written resource's collection) and its descendants. Each write also
+ * records a generation for its path, and a GET only stores its response if no related path was written since the
+ * GET started, so that a read overlapping a write cannot cache the state from before it.
+ * <p>
+ * Responses with any non-terminal {@code provisioningState} and operation status URLs are never cached, so that
+ * long-running operation polling always sees the service state. Requests without a subscription in the path, and
+ * requests that already carry {@code If-None-Match}, pass through untouched.
+ */
+public final class ArmReadCachePolicy implements HttpPipelinePolicy {
+
+    private static final ArmReadCachePolicy SHARED = new ArmReadCachePolicy(
+        Duration.ofSeconds(Long.getLong("arm.cache.ttlSeconds", 10)),
+        Integer.getInteger("arm.cache.maxEntries", 1000),
+        Long.getLong("arm.cache.maxBytes", 16L * 1024 * 1024));
+
+    private static final String REVALIDATING = "arm-read-cache-revalidating";
+
+    private static final Pattern PROVISIONING_STATE =
+        Pattern.compile("\"provisioningState\"\\s*:\\s*\"(\\w+)\"", Pattern.CASE_INSENSITIVE);
+    private static final Pattern OPERATION_STATUS =
+        Pattern.compile("/(operationresults|operationstatuses|asyncoperations|operations)/", Pattern.CASE_INSENSITIVE);
+
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private final LinkedHashMap<String, Long> writeGenerations = new LinkedHashMap<>();
+    private long generation;
+    private long forgottenGeneration;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Creates a cache; prefer {@link #shared()}.
+     *
+     * @param ttl how long an entry is served without revalidation
+     * @param maxEntries the maximum number of entries
+     * @param maxBytes the maximum total size of the cached bodies
+     */
+    public ArmReadCachePolicy(Duration ttl, int maxEntries, long maxBytes) {
+        this.ttlNanos = ttl.toNanos();
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cache shared by all clients of the JVM, configured by -Darm.cache.ttlSeconds (default 10),
+     * -Darm.cache.maxEntries (default 1000) and -Darm.cache.maxBytes (default 16 MB)
+     */
+    public static ArmReadCachePolicy shared() {
+        return SHARED;
+    }
+
+    /** @return the number of GETs served from memory without a call */
+    public long hits() {
+        return hits.get();
+    }
+
+    /** @return the number of GETs answered 304 and served from memory */
+    public long revalidations() {
+        return revalidations.get();
+    }
+
+    /** @return the number of GETs without a usable entry */
+    public long misses() {
+        return misses.get();
+    }
+
+    /** @return the number of entries evicted to stay within the bounds */
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /** @return the number of entries invalidated by writes */
+    public long invalidations() {
+        return invalidations.get();
+    }
+
+    @Override
+    public HttpPipelinePosition getPipelinePosition() {
+        // after authentication, so that the key includes the caller identity
+        return HttpPipelinePosition.PER_RETRY;
+    }
+
+    @Override
+    public Mono<HttpResponse> process(HttpPipelineCallContext context, HttpPipelineNextPolicy next) {
+        HttpRequest request = context.getHttpRequest();
+        String path = request.getUrl().getPath().toLowerCase(Locale.ROOT);
+        if (!path.contains("/subscriptions/")) {
+            return next.process();
+        }
+        if (request.getHttpMethod() != HttpMethod.GET) {
+            if (request.getHttpMethod() != HttpMethod.HEAD && request.getHttpMethod() != HttpMethod.OPTIONS) {
+                // invalidate before and after the write, so no read racing with it caches the old state
+                invalidate(path);
+                return next.process().doOnNext(response -> invalidate(path));
+            }
+            return next.process();
+        }
+        if (context.getData(REVALIDATING).isPresent()) {
+            // a retry of a revalidation added by this policy, start over
+            request.getHeaders().remove("If-None-Match");
+        }
+        if (request.getHeaders().getValue("If-None-Match") != null || OPERATION_STATUS.matcher(path).find()) {
+            return next.process();
+        }
+
+        String key = SingleFlightPolicy.requestKey(request);
+        long startGeneration = generation();
+        Entry entry = get(key);
+        if (entry != null && System.nanoTime() - entry.storedAt < ttlNanos) {
+            hits.incrementAndGet();
+            return Mono.just(entry.response.copyFor(request));
+        }
+        if (entry != null && entry.etag != null) {
+            request.setHeader("If-None-Match", entry.etag);
+            context.setData(REVALIDATING, true);
+        } else {
+            misses.incrementAndGet();
+        }
+
+        return next.process().flatMap(response -> {
+            if (entry != null && entry.etag != null && response.getStatusCode() == 304) {
+                revalidations.incrementAndGet();
+                putIfUnwritten(key, new Entry(path, entry.etag, entry.response), startGeneration);
+                return Mono.just(entry.response.copyFor(request));
+            }
+            if (entry != null && entry.etag != null) {
+                misses.incrementAndGet();
+            }
+            if (response.getStatusCode() != 200) {
+                return Mono.just(response);
+            }
+            return response.getBodyAsByteArray()
+                .defaultIfEmpty(new byte[0])
+                .map(body -> {
+                    BufferedResponse buffered = new BufferedResponse(request, response.getStatusCode(),
+                        new HttpHeaders(response.getHeaders()), body);
+                    if (cacheable(body)) {
+                        putIfUnwritten(key, new Entry(path, response.getHeaderValue("ETag"), buffered), startGeneration);
+                    }
+                    return buffered;
+                });
+        });
+    }
+
+    private boolean cacheable(byte[] body) {
+        if (body.length > maxBytes / 8) {
+            return false;
+        }
+        // a list holds one state per resource, every one of them must be terminal
+        Matcher state = PROVISIONING_STATE.matcher(new String(body, StandardCharsets.UTF_8));
+        while (state.find()) {
+            String provisioningState = state.group(1);
+            if (!"Succeeded".equalsIgnoreCase(provisioningState)
+                && !"Failed".equalsIgnoreCase(provisioningState)
+                && !"Canceled".equalsIgnoreCase(provisioningState)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+
+    private synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Stores the response of a GET unless a related path was written since the GET started.
+     */
+    private synchronized void putIfUnwritten(String key, Entry entry, long startGeneration) {
+        if (startGeneration < forgottenGeneration) {
+            // the writes since the GET started are no longer all known
+            return;
+        }
+        for (Map.Entry<String, Long> write : writeGenerations.entrySet()) {
+            if (write.getValue() > startGeneration && related(entry.path, write.getKey())) {
+                return;
+            }
+        }
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes -= previous.response.bodyLength();
+        }
+        bytes += entry.response.bodyLength();
+        Iterator<Entry> eldest = entries.values().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+            bytes -= eldest.next().response.bodyLength();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private synchronized void invalidate(String writePath) {
+        writeGenerations.remove(writePath);
+        writeGenerations.put(writePath, ++generation);
+        Iterator<Map.Entry<String, Long>> oldest = writeGenerations.entrySet().iterator();
+        while (writeGenerations.size() > maxEntries) {
+            forgottenGeneration = Math.max(forgottenGeneration, oldest.next().getValue());
+            oldest.remove();
+        }
+
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (related(entry.path, writePath)) {
+                bytes -= entry.response.bodyLength();
+                iterator.remove();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return whether the paths are the same, or one is an ancestor of the other
+     */
+    static boolean related(String cachedPath, String writePath) {
+        return isSameOrAncestor(cachedPath, writePath) || isSameOrAncestor(writePath, cachedPath);
+    }
+
+    private static boolean isSameOrAncestor(String ancestor, String path) {
+        return path.startsWith(ancestor) && (path.length() == ancestor.length() || path.charAt(ancestor.length()) == '/');
+    }
+
+    private static final class Entry {
+        private final String path;
+        private final String etag;
+        private final BufferedResponse response;
+        private final long storedAt = System.nanoTime();
+
+        private Entry(String path, String etag, BufferedResponse response) {
+            this.path = path;
+            this.etag = etag;
+            this.response = response;
+        }
+    }
+}
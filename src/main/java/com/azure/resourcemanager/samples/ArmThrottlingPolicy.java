@@ -0,0 +1,241 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.samples;
+
+import com.azure.core.http.HttpHeaders;
+import com.azure.core.http.HttpMethod;
+import com.azure.core.http.HttpPipelineCallContext;
+import com.azure.core.http.HttpPipelineNextPolicy;
+import com.azure.core.http.HttpPipelinePosition;
+import com.azure.core.http.HttpRequest;
+import com.azure.core.http.HttpResponse;
+import com.azure.core.http.policy.HttpPipelinePolicy;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Paces ARM requests with a token bucket per subscription and operation class, so that scaled-out provisioning
+ * slows down before ARM starts answering 429.
+ * <p>
+ * The buckets start from ARM's documented per-subscription limits and are corrected from every response: the
+ * {@code x-ms-ratelimit-remaining-subscription-reads/writes/deletes} headers cap the tokens left, and a 429 blocks
+ * the bucket for its {@code Retry-After}. A request that would have to wait longer than the maximum delay is shed
+ * locally with a synthetic 429 carrying the wait as {@code Retry-After}, which retry policies handle like a real one.
+ * <p>
+ * ARM counts requests per subscription, whatever the client, so the same {@link #shared()} instance belongs in
+ * every pipeline of the JVM. Requests without a subscription in the path pass through untouched.
+ */
+public final class ArmThrottlingPolicy implements HttpPipelinePolicy {
+
+    private static final ArmThrottlingPolicy SHARED =
+        new ArmThrottlingPolicy(Duration.ofSeconds(Long.getLong("arm.throttling.maxDelaySeconds", 60)));
+
+    private static final Pattern SUBSCRIPTION = Pattern.compile("/subscriptions/([^/]+)", Pattern.CASE_INSENSITIVE);
+    private static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds(10);
+
+    /**
+     * ARM operation classes, each with its own limit.
+     */
+    private enum OperationClass {
+        READS(250, 25),
+        WRITES(200, 10),
+        DELETES(200, 10);
+
+        private final int capacity;
+        private final int refillPerSecond;
+
+        OperationClass(int capacity, int refillPerSecond) {
+            this.capacity = capacity;
+            this.refillPerSecond = refillPerSecond;
+        }
+
+        private String remainingHeader() {
+            return "x-ms-ratelimit-remaining-subscription-" + name().toLowerCase(Locale.ROOT);
+        }
+
+        private static OperationClass of(HttpMethod method) {
+            if (method == HttpMethod.GET || method == HttpMethod.HEAD) {
+                return READS;
+            }
+            return method == HttpMethod.DELETE ? DELETES : WRITES;
+        }
+    }
+
+    private final long maxDelayNanos;
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong delayed = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+
+    /**
+     * Creates a policy with its own buckets; prefer {@link #shared()}.
+     *
+     * @param maxDelay the longest a request is delayed before it is shed
+     */
+    public ArmThrottlingPolicy(Duration maxDelay) {
+        this.maxDelayNanos = maxDelay.toNanos();
+    }
+
+    /**
+     * @return the policy shared by all clients of the JVM, shedding after -Darm.throttling.maxDelaySeconds (default 60)
+     */
+    public static ArmThrottlingPolicy shared() {
+        return SHARED;
+    }
+
+    /** @return the number of requests delayed to stay under the limits */
+    public long delayed() {
+        return delayed.get();
+    }
+
+    /** @return the number of requests shed with a synthetic 429 */
+    public long shed() {
+        return shed.get();
+    }
+
+    @Override
+    public HttpPipelinePosition getPipelinePosition() {
+        // every attempt, retries included, takes a token
+        return HttpPipelinePosition.PER_RETRY;
+    }
+
+    @Override
+    public Mono<HttpResponse> process(HttpPipelineCallContext context, HttpPipelineNextPolicy next) {
+        HttpRequest request = context.getHttpRequest();
+        Matcher matcher = SUBSCRIPTION.matcher(request.getUrl().getPath());
+        if (!matcher.find()) {
+            return next.process();
+        }
+        OperationClass operationClass = OperationClass.of(request.getHttpMethod());
+        TokenBucket bucket = buckets.computeIfAbsent(
+            matcher.group(1).toLowerCase(Locale.ROOT) + "/" + operationClass,
+            key -> new TokenBucket(operationClass));
+
+        long delayNanos = bucket.reserve(maxDelayNanos);
+        if (delayNanos < 0) {
+            shed.incrementAndGet();
+            Duration retryAfter = Duration.ofNanos(-delayNanos);
+            System.out.printf("Shedding %s %s, %s of subscription are throttled for %d s%n",
+                request.getHttpMethod(), request.getUrl().getPath(), operationClass.name().toLowerCase(Locale.ROOT),
+                retryAfter.getSeconds());
+            return Mono.just(throttledResponse(request, retryAfter));
+        }
+        // deferred, so that the rest of the pipeline only runs once the delay is over
+        Mono<HttpResponse> response = Mono.defer(next::process)
+            .doOnNext(httpResponse -> bucket.update(httpResponse, operationClass));
+        if (delayNanos == 0) {
+            return response;
+        }
+        delayed.incrementAndGet();
+        return Mono.delay(Duration.ofNanos(delayNanos)).then(response);
+    }
+
+    /**
+     * @return the wait requested by the {@code retry-after-ms}, {@code x-ms-retry-after-ms} or {@code Retry-After}
+     * header of the response, or the default value if there is none or it is malformed
+     */
+    static Duration retryAfter(HttpResponse response, Duration defaultValue) {
+        String milliseconds = response.getHeaderValue("retry-after-ms");
+        if (milliseconds == null) {
+            milliseconds = response.getHeaderValue("x-ms-retry-after-ms");
+        }
+        try {
+            if (milliseconds != null) {
+                return Duration.ofMillis(Long.parseLong(milliseconds.trim()));
+            }
+            String retryAfter = response.getHeaderValue("Retry-After");
+            if (retryAfter == null) {
+                return defaultValue;
+            }
+            if (retryAfter.trim().matches("\\d+")) {
+                return Duration.ofSeconds(Long.parseLong(retryAfter.trim()));
+            }
+            Duration untilDate = Duration.between(OffsetDateTime.now(),
+                OffsetDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+            return untilDate.isNegative() ? Duration.ZERO : untilDate;
+        } catch (RuntimeException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Token bucket of one subscription and operation class, kept in sync with the remaining count ARM reports.
+     */
+    private static final class TokenBucket {
+        private final double capacity;
+        private final double refillPerNano;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+        private long blockedUntil = refilledAt;
+
+        private TokenBucket(OperationClass operationClass) {
+            this.capacity = operationClass.capacity;
+            this.refillPerNano = operationClass.refillPerSecond / (double) TimeUnit.SECONDS.toNanos(1);
+            this.tokens = capacity;
+        }
+
+        /**
+         * Takes a token.
+         *
+         * @return 0 to send now, the delay in nanoseconds before sending, or minus the wait if the request is shed
+         */
+        private synchronized long reserve(long maxDelayNanos) {
+            long now = refill();
+            long delay = Math.max(0, blockedUntil - now);
+            if (tokens < 1) {
+                delay = Math.max(delay, (long) ((1 - tokens) / refillPerNano));
+            }
+            if (delay > maxDelayNanos) {
+                return -delay;
+            }
+            tokens -= 1;
+            return delay;
+        }
+
+        private synchronized void update(HttpResponse response, OperationClass operationClass) {
+            long now = refill();
+            String remaining = response.getHeaderValue(operationClass.remainingHeader());
+            if (remaining != null) {
+                try {
+                    tokens = Math.min(tokens, Double.parseDouble(remaining));
+                } catch (NumberFormatException e) {
+                    // ignore malformed header
+                }
+            }
+            if (response.getStatusCode() == 429) {
+                tokens = Math.min(tokens, 0);
+                blockedUntil = Math.max(blockedUntil, now + retryAfter(response, DEFAULT_RETRY_AFTER).toNanos());
+            }
+        }
+
+        private long refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * refillPerNano);
+            refilledAt = now;
+            return now;
+        }
+    }
+
+    private static HttpResponse throttledResponse(HttpRequest request, Duration retryAfter) {
+        long seconds = Math.max(1, retryAfter.getSeconds());
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Retry-After", Long.toString(seconds));
+        headers.set("Content-Type", "application/json");
+        // shaped like an ARM throttling error, so that clients surface it as one
+        byte[] body = String.format("{\"error\":{\"code\":\"ClientThrottled\",\"message\":"
+            + "\"Request shed locally to stay under the ARM request limit, retry after %d seconds.\"}}", seconds)
+            .getBytes(StandardCharsets.UTF_8);
+        return new BufferedResponse(request, 429, headers, body);
+    }
+}
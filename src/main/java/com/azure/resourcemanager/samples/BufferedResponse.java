@@ -0,0 +1,80 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.samples;
+
+import com.azure.core.http.HttpHeaders;
+import com.azure.core.http.HttpRequest;
+import com.azure.core.http.HttpResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Response whose body is held in memory, so that pipeline policies can answer requests without the network
+ * or hand one response to several requests.
+ */
+final class BufferedResponse extends HttpResponse {
+
+    private final int statusCode;
+    private final HttpHeaders headers;
+    private final byte[] body;
+
+    BufferedResponse(HttpRequest request, int statusCode, HttpHeaders headers, byte[] body) {
+        super(request);
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    /**
+     * @param request the request the copy answers
+     * @return a response with the same status, headers and body for another request
+     */
+    BufferedResponse copyFor(HttpRequest request) {
+        return new BufferedResponse(request, statusCode, headers, body);
+    }
+
+    /** @return the number of body bytes */
+    int bodyLength() {
+        return body.length;
+    }
+
+    @Override
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    @Override
+    public String getHeaderValue(String name) {
+        return headers.getValue(name);
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public Flux<ByteBuffer> getBody() {
+        return Flux.defer(() -> Flux.just(ByteBuffer.wrap(body).asReadOnlyBuffer()));
+    }
+
+    @Override
+    public Mono<byte[]> getBodyAsByteArray() {
+        return Mono.fromSupplier(body::clone);
+    }
+
+    @Override
+    public Mono<String> getBodyAsString() {
+        return getBodyAsString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Mono<String> getBodyAsString(Charset charset) {
+        return Mono.fromSupplier(() -> new String(body, charset));
+    }
+}
@@ -0,0 +1,338 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.samples;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.text.SimpleDateFormat;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates self-signed X.509 server certificates in memory, without keytool or temporary files.
+ * <p>
+ * The certificate is DER encoded by hand, signed with the JDK {@link Signature}, and packaged as PKCS12 together
+ * with its private key. It carries the subject alternative names and the server authentication extended key usage
+ * that App Service and Spring Cloud custom domains require.
+ */
+public final class CertificateGenerator {
+
+    private static final String OID_COMMON_NAME = "2.5.4.3";
+    private static final String OID_SUBJECT_KEY_IDENTIFIER = "2.5.29.14";
+    private static final String OID_KEY_USAGE = "2.5.29.15";
+    private static final String OID_SUBJECT_ALTERNATIVE_NAME = "2.5.29.17";
+    private static final String OID_BASIC_CONSTRAINTS = "2.5.29.19";
+    private static final String OID_EXTENDED_KEY_USAGE = "2.5.29.37";
+    private static final String OID_SERVER_AUTH = "1.3.6.1.5.5.7.3.1";
+    private static final String OID_SHA256_WITH_RSA = "1.2.840.113549.1.1.11";
+    private static final String OID_SHA256_WITH_ECDSA = "1.2.840.10045.4.3.2";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private String keyAlgorithm = "RSA";
+    private int keySize = 2048;
+    private int validityInDays = 3650;
+
+    /**
+     * Sets the algorithm and size of generated key pairs, RSA 2048 by default.
+     *
+     * @param keyAlgorithm "RSA" or "EC"
+     * @param keySize the key size in bits
+     * @return this generator
+     */
+    public CertificateGenerator withKeyAlgorithm(String keyAlgorithm, int keySize) {
+        if (!"RSA".equals(keyAlgorithm) && !"EC".equals(keyAlgorithm)) {
+            throw new IllegalArgumentException("Unsupported key algorithm " + keyAlgorithm);
+        }
+        this.keyAlgorithm = keyAlgorithm;
+        this.keySize = keySize;
+        return this;
+    }
+
+    /**
+     * @param validityInDays days from now until the certificate expires, 3650 by default
+     * @return this generator
+     */
+    public CertificateGenerator withValidityInDays(int validityInDays) {
+        this.validityInDays = validityInDays;
+        return this;
+    }
+
+    /**
+     * Issues a self-signed certificate for a key pair from the shared {@link KeyPairPool}.
+     *
+     * @param alias the alias of the key entry in the PKCS12 store
+     * @param password the PKCS12 password
+     * @param commonName the subject common name
+     * @param dnsNames the subject alternative DNS names
+     * @return the certificate
+     */
+    public GeneratedCertificate generate(String alias, String password, String commonName, String... dnsNames) {
+        return generate(KeyPairPool.shared().take(keyAlgorithm, keySize), alias, password, commonName, dnsNames);
+    }
+
+    /**
+     * Issues a self-signed certificate for an existing key pair.
+     *
+     * @param keyPair the RSA or EC key pair
+     * @param alias the alias of the key entry in the PKCS12 store
+     * @param password the PKCS12 password
+     * @param commonName the subject common name
+     * @param dnsNames the subject alternative DNS names
+     * @return the certificate
+     */
+    public GeneratedCertificate generate(KeyPair keyPair, String alias, String password,
+                                         String commonName, String... dnsNames) {
+        try {
+            boolean rsa = "RSA".equals(keyPair.getPublic().getAlgorithm());
+            String signatureAlgorithm = rsa ? "SHA256withRSA" : "SHA256withECDSA";
+            byte[] algorithmIdentifier = rsa
+                ? sequence(oid(OID_SHA256_WITH_RSA), new byte[] {0x05, 0x00})
+                : sequence(oid(OID_SHA256_WITH_ECDSA));
+
+            long now = System.currentTimeMillis();
+            // backdate by an hour to tolerate clock skew between this machine and the service
+            Date notBefore = new Date(now - TimeUnit.HOURS.toMillis(1));
+            Date notAfter = new Date(now + TimeUnit.DAYS.toMillis(validityInDays));
+            byte[] name = name(commonName);
+
+            byte[] tbsCertificate = sequence(
+                tagged(0xA0, integer(BigInteger.valueOf(2))),
+                integer(new BigInteger(1, randomBytes(16))),
+                algorithmIdentifier,
+                name,
+                sequence(time(notBefore), time(notAfter)),
+                name,
+                keyPair.getPublic().getEncoded(),
+                tagged(0xA3, sequence(extensions(keyPair, rsa, dnsNames))));
+
+            Signature signature = Signature.getInstance(signatureAlgorithm);
+            signature.initSign(keyPair.getPrivate());
+            signature.update(tbsCertificate);
+            byte[] encoded = sequence(tbsCertificate, algorithmIdentifier, bitString(signature.sign(), 0));
+
+            X509Certificate certificate = (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(encoded));
+            certificate.verify(keyPair.getPublic());
+            return new GeneratedCertificate(alias, password, certificate, keyPair.getPrivate());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("failed to generate certificate for " + commonName, e);
+        }
+    }
+
+    private static byte[][] extensions(KeyPair keyPair, boolean rsa, String... dnsNames) throws GeneralSecurityException {
+        byte[][] generalNames = new byte[dnsNames.length][];
+        for (int i = 0; i < dnsNames.length; i++) {
+            // dNSName [2] IMPLICIT IA5String
+            generalNames[i] = tlv(0x82, dnsNames[i].getBytes(StandardCharsets.US_ASCII));
+        }
+        byte[] keyIdentifier = MessageDigest.getInstance("SHA-1").digest(keyPair.getPublic().getEncoded());
+        byte[] keyUsage = rsa
+            // digitalSignature and keyEncipherment
+            ? bitString(new byte[] {(byte) 0xA0}, 5)
+            // digitalSignature
+            : bitString(new byte[] {(byte) 0x80}, 7);
+
+        byte[][] extensions = new byte[dnsNames.length == 0 ? 4 : 5][];
+        extensions[0] = extension(OID_BASIC_CONSTRAINTS, true, sequence());
+        extensions[1] = extension(OID_KEY_USAGE, true, keyUsage);
+        extensions[2] = extension(OID_EXTENDED_KEY_USAGE, false, sequence(oid(OID_SERVER_AUTH)));
+        extensions[3] = extension(OID_SUBJECT_KEY_IDENTIFIER, false, tlv(0x04, keyIdentifier));
+        if (dnsNames.length > 0) {
+            extensions[4] = extension(OID_SUBJECT_ALTERNATIVE_NAME, false, sequence(generalNames));
+        }
+        return extensions;
+    }
+
+    private static byte[] extension(String oid, boolean critical, byte[] value) {
+        return critical
+            ? sequence(oid(oid), new byte[] {0x01, 0x01, (byte) 0xFF}, tlv(0x04, value))
+            : sequence(oid(oid), tlv(0x04, value));
+    }
+
+    private static byte[] name(String commonName) {
+        byte[] attribute = sequence(oid(OID_COMMON_NAME), tlv(0x0C, commonName.getBytes(StandardCharsets.UTF_8)));
+        return sequence(tlv(0x31, attribute));
+    }
+
+    private static byte[] time(Date date) {
+        // RFC 5280: UTCTime through 2049, GeneralizedTime from 2050
+        SimpleDateFormat yearFormat = utcFormat("yyyy");
+        boolean utcTime = Integer.parseInt(yearFormat.format(date)) < 2050;
+        String text = utcFormat(utcTime ? "yyMMddHHmmss'Z'" : "yyyyMMddHHmmss'Z'").format(date);
+        return tlv(utcTime ? 0x17 : 0x18, text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static SimpleDateFormat utcFormat(String pattern) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+
+    private static byte[] oid(String oid) {
+        String[] arcs = oid.split("\\.");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(Integer.parseInt(arcs[0]) * 40 + Integer.parseInt(arcs[1]));
+        for (int i = 2; i < arcs.length; i++) {
+            long arc = Long.parseLong(arcs[i]);
+            int groups = 1;
+            while ((arc >>> (7 * groups)) != 0) {
+                groups++;
+            }
+            for (int group = groups - 1; group >= 0; group--) {
+                int bits = (int) ((arc >>> (7 * group)) & 0x7F);
+                out.write(group == 0 ? bits : bits | 0x80);
+            }
+        }
+        return tlv(0x06, out.toByteArray());
+    }
+
+    private static byte[] integer(BigInteger value) {
+        return tlv(0x02, value.toByteArray());
+    }
+
+    private static byte[] bitString(byte[] bits, int unusedBits) {
+        byte[] content = new byte[bits.length + 1];
+        content[0] = (byte) unusedBits;
+        System.arraycopy(bits, 0, content, 1, bits.length);
+        return tlv(0x03, content);
+    }
+
+    private static byte[] sequence(byte[]... elements) {
+        return tagged(0x30, elements);
+    }
+
+    private static byte[] tagged(int tag, byte[]... elements) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (byte[] element : elements) {
+            content.write(element, 0, element.length);
+        }
+        return tlv(tag, content.toByteArray());
+    }
+
+    private static byte[] tlv(int tag, byte[] content) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length + 6);
+        out.write(tag);
+        int length = content.length;
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            int lengthBytes = (32 - Integer.numberOfLeadingZeros(length) + 7) / 8;
+            out.write(0x80 | lengthBytes);
+            for (int i = lengthBytes - 1; i >= 0; i--) {
+                out.write(length >>> (8 * i));
+            }
+        }
+        out.write(content, 0, content.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        RANDOM.nextBytes(bytes);
+        // keep the serial number positive and free of leading zero bytes
+        bytes[0] = (byte) ((bytes[0] & 0x7F) | 0x40);
+        return bytes;
+    }
+
+    /**
+     * A generated certificate with its private key, in the encodings the samples upload.
+     */
+    public static final class GeneratedCertificate {
+        private final String alias;
+        private final String password;
+        private final X509Certificate certificate;
+        private final PrivateKey privateKey;
+        private byte[] pfx;
+
+        private GeneratedCertificate(String alias, String password, X509Certificate certificate, PrivateKey privateKey) {
+            this.alias = alias;
+            this.password = password;
+            this.certificate = certificate;
+            this.privateKey = privateKey;
+        }
+
+        /** @return the certificate */
+        public X509Certificate certificate() {
+            return certificate;
+        }
+
+        /** @return the private key */
+        public PrivateKey privateKey() {
+            return privateKey;
+        }
+
+        /** @return the PKCS12 password */
+        public String password() {
+            return password;
+        }
+
+        /** @return the PKCS12 store holding the private key and the certificate under the alias */
+        public synchronized byte[] pfx() {
+            if (pfx == null) {
+                try {
+                    KeyStore store = KeyStore.getInstance("PKCS12");
+                    store.load(null, null);
+                    store.setKeyEntry(alias, privateKey, password.toCharArray(), new Certificate[] {certificate});
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    store.store(out, password.toCharArray());
+                    pfx = out.toByteArray();
+                } catch (GeneralSecurityException | IOException e) {
+                    throw new IllegalStateException("failed to build PKCS12 for " + alias, e);
+                }
+            }
+            return pfx.clone();
+        }
+
+        /** @return the certificate in PEM encoding */
+        public String pem() {
+            try {
+                return "-----BEGIN CERTIFICATE-----\n"
+                    + Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII)).encodeToString(certificate.getEncoded())
+                    + "\n-----END CERTIFICATE-----\n";
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /** @return the upper case hex SHA-1 thumbprint, as App Service and Spring Cloud identify certificates */
+        public String sha1Thumbprint() {
+            return thumbprint("SHA-1");
+        }
+
+        /** @return the upper case hex SHA-256 thumbprint */
+        public String sha256Thumbprint() {
+            return thumbprint("SHA-256");
+        }
+
+        private String thumbprint(String digestAlgorithm) {
+            try {
+                byte[] digest = MessageDigest.getInstance(digestAlgorithm).digest(certificate.getEncoded());
+                StringBuilder hex = new StringBuilder(digest.length * 2);
+                for (byte b : digest) {
+                    hex.append(String.format("%02X", b));
+                }
+                return hex.toString();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.samples;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe supplier of key pairs, pre-generated on a background thread.
+ * <p>
+ * Each algorithm and key size has its own bounded buffer, created and filled on first use and refilled after every
+ * take, so callers only pay the generation latency when they drain a buffer faster than it refills. RSA 2048/4096
+ * takes hundreds of milliseconds per key; "EC" (P-256/P-384) and, on Java 15 and later, "Ed25519" take a millisecond
+ * or less and are preferable wherever the consumer accepts them.
+ */
+public final class KeyPairPool {
+
+    private static final KeyPairPool SHARED = new KeyPairPool(Integer.getInteger("keypair.pool.capacity", 4));
+
+    private final int capacity;
+    private final ConcurrentMap<String, Buffer> buffers = new ConcurrentHashMap<>();
+    private final ExecutorService generator = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "keypair-pool");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity the number of key pairs buffered per algorithm and key size
+     */
+    public KeyPairPool(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the pool shared by the samples, buffering -Dkeypair.pool.capacity (default 4) pairs per key type
+     */
+    public static KeyPairPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Takes a key pair from the buffer, or generates one on the calling thread if the buffer is empty.
+     *
+     * @param algorithm the key algorithm, "RSA", "EC" or "Ed25519"
+     * @param keySize the key size in bits, ignored for Ed25519
+     * @return a key pair that has not been handed out before
+     */
+    public KeyPair take(String algorithm, int keySize) {
+        Buffer buffer = buffer(algorithm, keySize);
+        KeyPair keyPair = buffer.keyPairs.poll();
+        buffer.refill();
+        if (keyPair != null) {
+            hits.incrementAndGet();
+            return keyPair;
+        }
+        misses.incrementAndGet();
+        return buffer.generate();
+    }
+
+    /**
+     * Starts filling the buffer of a key type ahead of its first use.
+     *
+     * @param algorithm the key algorithm, "RSA", "EC" or "Ed25519"
+     * @param keySize the key size in bits, ignored for Ed25519
+     * @return this pool
+     */
+    public KeyPairPool warmUp(String algorithm, int keySize) {
+        buffer(algorithm, keySize).refill();
+        return this;
+    }
+
+    /** @return the number of takes served from a buffer */
+    public long hits() {
+        return hits.get();
+    }
+
+    /** @return the number of takes that had to generate a key pair inline */
+    public long misses() {
+        return misses.get();
+    }
+
+    private Buffer buffer(String algorithm, int keySize) {
+        return buffers.computeIfAbsent(algorithm + "/" + keySize, key -> new Buffer(algorithm, keySize));
+    }
+
+    private final class Buffer {
+        private final String algorithm;
+        private final int keySize;
+        private final BlockingQueue<KeyPair> keyPairs = new ArrayBlockingQueue<>(capacity);
+        private final AtomicBoolean filling = new AtomicBoolean();
+
+        private Buffer(String algorithm, int keySize) {
+            this.algorithm = algorithm;
+            this.keySize = keySize;
+            // fail fast on the caller's thread for algorithms this JVM does not provide
+            generator();
+        }
+
+        private void refill() {
+            if (keyPairs.remainingCapacity() > 0 && filling.compareAndSet(false, true)) {
+                generator.execute(() -> {
+                    try {
+                        while (keyPairs.remainingCapacity() > 0) {
+                            keyPairs.offer(generate());
+                        }
+                    } catch (RuntimeException e) {
+                        System.err.printf("Stopped pre-generating %s/%d key pairs: %s%n", algorithm, keySize, e);
+                    } finally {
+                        filling.set(false);
+                    }
+                });
+            }
+        }
+
+        private KeyPair generate() {
+            return generator().generateKeyPair();
+        }
+
+        private KeyPairGenerator generator() {
+            try {
+                // KeyPairGenerator is not thread-safe, so each generation gets its own
+                KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(algorithm);
+                if (!"Ed25519".equalsIgnoreCase(algorithm) && !"EdDSA".equalsIgnoreCase(algorithm)) {
+                    keyPairGenerator.initialize(keySize);
+                }
+                return keyPairGenerator;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalArgumentException("Unsupported key type " + algorithm + "/" + keySize, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.samples;
+
+import com.azure.core.http.HttpHeaders;
+import com.azure.core.http.HttpMethod;
+import com.azure.core.http.HttpPipelineCallContext;
+import com.azure.core.http.HttpPipelineNextPolicy;
+import com.azure.core.http.HttpPipelinePosition;
+import com.azure.core.http.HttpRequest;
+import com.azure.core.http.HttpResponse;
+import com.azure.core.http.policy.HttpPipelinePolicy;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lets concurrent identical GET requests share one HTTP call.
+ * <p>
+ * The first GET for a URL and caller identity is sent; GETs for the same key issued while it is in flight wait for
+ * its response instead of sending their own, and each of them receives a copy of the buffered response. Requests
+ * are keyed by URL and a digest of their {@code Authorization} header, so callers with different credentials never
+ * share a response. GETs with a {@code Range} header are not coalesced.
+ * <p>
+ * Any write (PUT, PATCH, POST or DELETE) records a generation for its path, before it is sent and once it is
+ * answered. A GET only joins an in-flight call if no related path, that is the same path, an ancestor or a
+ * descendant, was written since that call started; otherwise it starts a call of its own, so that a read issued after
+ * a write never receives the state from before it.
+ * <p>
+ * The policy runs after authentication and before {@link ArmThrottlingPolicy}, so a coalesced request takes no
+ * token from the ARM rate limits.
+ */
+public final class SingleFlightPolicy implements HttpPipelinePolicy {
+
+    private static final SingleFlightPolicy SHARED = new SingleFlightPolicy();
+
+    private static final int MAX_WRITES = 1000;
+
+    private final ConcurrentMap<String, Flight> inFlight = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, Long> writeGenerations = new LinkedHashMap<>();
+    private long generation;
+    private long forgottenGeneration;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    /**
+     * @return the policy shared by all clients of the JVM
+     */
+    public static SingleFlightPolicy shared() {
+        return SHARED;
+    }
+
+    /** @return the number of GET requests seen */
+    public long requests() {
+        return requests.get();
+    }
+
+    /** @return the number of GET requests that had to be sent */
+    public long sent() {
+        return sent.get();
+    }
+
+    /** @return the number of HTTP calls saved by sharing an in-flight response */
+    public long saved() {
+        return requests.get() - sent.get();
+    }
+
+    /** @return the number of response body bytes not transferred thanks to sharing */
+    public long bytesSaved() {
+        return bytesSaved.get();
+    }
+
+    @Override
+    public HttpPipelinePosition getPipelinePosition() {
+        // after authentication, so that the key includes the caller identity
+        return HttpPipelinePosition.PER_RETRY;
+    }
+
+    @Override
+    public Mono<HttpResponse> process(HttpPipelineCallContext context, HttpPipelineNextPolicy next) {
+        HttpRequest request = context.getHttpRequest();
+        String path = request.getUrl().getPath().toLowerCase(Locale.ROOT);
+        if (request.getHttpMethod() != HttpMethod.GET) {
+            if (request.getHttpMethod() != HttpMethod.HEAD && request.getHttpMethod() != HttpMethod.OPTIONS) {
+                // record the write before and after it, so that no GET joins a call that may have read the old state
+                recordWrite(path);
+                return next.process().doOnNext(response -> recordWrite(path));
+            }
+            return next.process();
+        }
+        if (request.getHeaders().getValue("Range") != null) {
+            return next.process();
+        }
+        requests.incrementAndGet();
+        String key = requestKey(request);
+
+        AtomicReference<Flight> leader = new AtomicReference<>();
+        Flight shared = inFlight.compute(key, (k, current) -> {
+            if (current != null && isUnwritten(current)) {
+                return current;
+            }
+            // a call that started before a related write keeps its own callers, but takes no new ones
+            long startGeneration = generation();
+            Mono<BufferedResponse> call = Mono.defer(() -> {
+                sent.incrementAndGet();
+                return next.process();
+            })
+                .flatMap(response -> response.getBodyAsByteArray()
+                    .defaultIfEmpty(new byte[0])
+                    .map(body -> new BufferedResponse(request, response.getStatusCode(),
+                        new HttpHeaders(response.getHeaders()), body)))
+                .doFinally(signal -> inFlight.remove(k, leader.get()))
+                .cache();
+            leader.set(new Flight(path, startGeneration, call));
+            return leader.get();
+        });
+        if (leader.get() == shared) {
+            return shared.call.cast(HttpResponse.class);
+        }
+        return shared.call.map(response -> {
+            bytesSaved.addAndGet(response.bodyLength());
+            return response.copyFor(request);
+        });
+    }
+
+    private synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * @return whether no path related to the call's was written since the call started
+     */
+    private synchronized boolean isUnwritten(Flight flight) {
+        if (flight.startGeneration < forgottenGeneration) {
+            // the writes since the call started are no longer all known
+            return false;
+        }
+        for (Map.Entry<String, Long> write : writeGenerations.entrySet()) {
+            if (write.getValue() > flight.startGeneration && ArmReadCachePolicy.related(flight.path, write.getKey())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized void recordWrite(String path) {
+        writeGenerations.remove(path);
+        writeGenerations.put(path, ++generation);
+        Iterator<Map.Entry<String, Long>> oldest = writeGenerations.entrySet().iterator();
+        while (writeGenerations.size() > MAX_WRITES) {
+            forgottenGeneration = Math.max(forgottenGeneration, oldest.next().getValue());
+            oldest.remove();
+        }
+    }
+
+    /**
+     * @return the URL of the request with a digest of its credentials, identifying requests that can share a response
+     */
+    static String requestKey(HttpRequest request) {
+        String authorization = request.getHeaders().getValue("Authorization");
+        if (authorization == null) {
+            return request.getUrl().toString();
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(authorization.getBytes(StandardCharsets.UTF_8));
+            return request.getUrl() + "|" + Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Flight {
+        private final String path;
+        private final long startGeneration;
+        private final Mono<BufferedResponse> call;
+
+        private Flight(String path, long startGeneration, Mono<BufferedResponse> call) {
+            this.path = path;
+            this.startGeneration = startGeneration;
+            this.call = call;
+        }
+    }
+}
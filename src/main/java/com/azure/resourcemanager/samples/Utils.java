@@ -12,7 +12,6 @@ import com.azure.core.http.HttpResponse;
 import com.azure.core.http.policy.HttpLogDetailLevel;
 import com.azure.core.http.policy.HttpLogOptions;
 import com.azure.core.http.policy.HttpLoggingPolicy;
-import com.azure.core.http.policy.RetryPolicy;
 import com.azure.core.http.rest.PagedIterable;
 import com.azure.core.http.rest.Response;
 import com.azure.core.http.rest.SimpleResponse;
@@ -203,8 +202,10 @@ import com.azure.resourcemanager.trafficmanager.models.TrafficManagerNestedProfi
 import com.azure.resourcemanager.trafficmanager.models.TrafficManagerProfile;
 import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.util.retry.Retry;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
@@ -217,23 +218,19 @@ import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.security.KeyPair;
-import java.security.KeyPairGenerator;
-import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.interfaces.RSAPublicKey;
-import java.time.Duration;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 /**
@@ -245,7 +242,7 @@ public final class Utils {
 
     private static final ClientLogger LOGGER = new ClientLogger(Utils.class);
 
-    private static String sshPublicKey;
+    private static volatile String sshPublicKey;
 
     private Utils() {
     }
@@ -261,11 +258,15 @@ public final class Utils {
      * @return an SSH public key
      */
     public static String sshPublicKey() {
-        if (sshPublicKey == null) {
+        if (sshPublicKey != null) {
+            return sshPublicKey;
+        }
+        synchronized (Utils.class) {
+            if (sshPublicKey != null) {
+                return sshPublicKey;
+            }
             try {
-                KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
-                keyGen.initialize(1024);
-                KeyPair pair = keyGen.generateKeyPair();
+                KeyPair pair = KeyPairPool.shared().take("RSA", 2048);
                 PublicKey publicKey = pair.getPublic();
 
                 RSAPublicKey rsaPublicKey = (RSAPublicKey) publicKey;
@@ -279,11 +280,11 @@ public final class Utils {
                 dos.write(rsaPublicKey.getModulus().toByteArray());
                 String publicKeyEncoded = new String(Base64.getEncoder().encode(byteOs.toByteArray()), StandardCharsets.US_ASCII);
                 sshPublicKey = "ssh-rsa " + publicKeyEncoded;
-            } catch (NoSuchAlgorithmException | IOException e) {
+            } catch (IOException e) {
                 throw LOGGER.logExceptionAsError(new IllegalStateException("failed to generate ssh key", e));
             }
+            return sshPublicKey;
         }
-        return sshPublicKey;
     }
 
     /**
@@ -1686,7 +1687,7 @@ public final class Utils {
 //    }
 
     /**
-     * This method creates a certificate for given password.
+     * This method creates a certificate for given password, see {@link CertificateGenerator} to create one in memory.
      *
      * @param certPath location of certificate file
      * @param pfxPath location of pfx file
@@ -1701,57 +1702,10 @@ public final class Utils {
         if (new File(pfxPath).exists()) {
             return;
         }
-        String validityInDays = "3650";
-        String keyAlg = "RSA";
-        String sigAlg = "SHA1withRSA";
-        String keySize = "2048";
-        String storeType = "pkcs12";
-        String command = "keytool";
-        String jdkPath = System.getProperty("java.home");
-        if (jdkPath != null && !jdkPath.isEmpty()) {
-            jdkPath = jdkPath.concat("\\bin");
-            if (new File(jdkPath).isDirectory()) {
-                command = String.format("%s%s%s", jdkPath, File.separator, command);
-            }
-        } else {
-            return;
-        }
-
-        // Create Pfx file
-        String[] commandArgs = {command, "-genkey", "-alias", alias,
-            "-keystore", pfxPath, "-storepass", password, "-validity",
-            validityInDays, "-keyalg", keyAlg, "-sigalg", sigAlg, "-keysize", keySize,
-            "-storetype", storeType, "-dname", "CN=" + cnName, "-ext", "EKU=1.3.6.1.5.5.7.3.1"};
-        if (dnsName != null) {
-            List<String> args = new ArrayList<>(Arrays.asList(commandArgs));
-            args.add("-ext");
-            args.add("san=dns:" + dnsName);
-            commandArgs = args.toArray(new String[0]);
-        }
-        Utils.cmdInvocation(commandArgs, true);
-
-        // Create cer file i.e. extract public key from pfx
-        File pfxFile = new File(pfxPath);
-        if (pfxFile.exists()) {
-            String[] certCommandArgs = {command, "-export", "-alias", alias,
-                "-storetype", storeType, "-keystore", pfxPath,
-                "-storepass", password, "-rfc", "-file", certPath};
-            // output of keytool export command is going to error stream
-            // although command is
-            // executed successfully, hence ignoring error stream in this case
-            Utils.cmdInvocation(certCommandArgs, true);
-
-            // Check if file got created or not
-            File cerFile = new File(pfxPath);
-            if (!cerFile.exists()) {
-                throw new IOException(
-                        "Error occurred while creating certificate"
-                                + String.join(" ", certCommandArgs));
-            }
-        } else {
-            throw new IOException("Error occurred while creating certificates"
-                    + String.join(" ", commandArgs));
-        }
+        CertificateGenerator.GeneratedCertificate certificate = new CertificateGenerator()
+            .generate(alias, password, cnName, dnsName == null ? new String[0] : new String[] {dnsName});
+        Files.write(new File(pfxPath).toPath(), certificate.pfx());
+        Files.write(new File(certPath).toPath(), certificate.pem().getBytes(StandardCharsets.US_ASCII));
     }
 
     /**
@@ -3441,48 +3395,66 @@ public final class Utils {
     /**
      * Sends a GET request to target URL.
      * <p>
-     * Retry logic tuned for AppService.
+     * Failed requests are retried by {@link AdaptiveRetryPolicy}, with jittered backoff and per-host circuit breaking.
      * The method does not handle 301 redirect.
      *
      * @param urlString the target URL.
      * @return Content of the HTTP response.
      */
     public static String sendGetRequest(String urlString) {
-        HttpRequest request = new HttpRequest(HttpMethod.GET, urlString);
-        Mono<Response<String>> response =
-            stringResponse(HTTP_PIPELINE.send(request)
-                .flatMap(response1 -> {
-                    int code = response1.getStatusCode();
-                    if (code == 200 || code == 400 || code == 404) {
-                        return Mono.just(response1);
-                    } else {
-                        return Mono.error(new HttpResponseException(response1));
-                    }
-                })
-                .retryWhen(Retry
-                    .fixedDelay(5, Duration.ofSeconds(30))
-                    .filter(t -> {
-                        boolean retry = false;
-                        if (t instanceof TimeoutException) {
-                            retry = true;
-                        } else if (t instanceof HttpResponseException
-                            && ((HttpResponseException) t).getResponse().getStatusCode() == 503) {
-                            retry = true;
-                        }
+        return sendGetRequestAsync(urlString).block();
+    }
 
-                        if (retry) {
-                            LOGGER.info("retry GET request to {}", urlString);
-                        }
-                        return retry;
-                    })));
-        Response<String> ret = response.block();
-        return ret == null ? null : ret.getValue();
+    /**
+     * Sends a GET request to target URL without blocking the caller.
+     * <p>
+     * Same retry logic as {@link #sendGetRequest(String)}, with the waits between attempts scheduled instead of
+     * parking the calling thread.
+     *
+     * @param urlString the target URL.
+     * @return Content of the HTTP response, empty if there is none.
+     */
+    public static Mono<String> sendGetRequestAsync(String urlString) {
+        return sendAsync(new HttpRequest(HttpMethod.GET, urlString));
+    }
+
+    /**
+     * Sends a GET request to target URL, for callers not using Reactor.
+     *
+     * @param urlString the target URL.
+     * @return future of the content of the HTTP response.
+     */
+    public static CompletableFuture<String> sendGetRequestFuture(String urlString) {
+        return sendGetRequestAsync(urlString).toFuture();
+    }
+
+    /**
+     * Sends GET requests to many URLs, at most {@code concurrency} at a time, over the connection pool shared with
+     * {@link #sendGetRequest(String)}.
+     * <p>
+     * A URL whose request fails after the retries is logged and left out of the result, so one unreachable endpoint
+     * does not fail the probe of the others.
+     *
+     * @param urlStrings the target URLs.
+     * @param concurrency the maximum number of requests in flight.
+     * @return Content of the HTTP responses keyed by URL, in completion order.
+     */
+    public static Mono<Map<String, String>> sendGetRequestsAsync(Collection<String> urlStrings, int concurrency) {
+        return Flux.fromIterable(urlStrings)
+            .flatMap(url -> sendGetRequestAsync(url)
+                .defaultIfEmpty("")
+                .map(content -> Tuples.of(url, content))
+                .onErrorResume(e -> {
+                    LOGGER.warning("GET request to {} failed: {}", url, e.getMessage());
+                    return Mono.empty();
+                }), concurrency)
+            .collectMap(Tuple2::getT1, Tuple2::getT2, LinkedHashMap::new);
     }
 
     /**
      * Sends a POST request to target URL.
      * <p>
-     * Retry logic tuned for AppService.
+     * Failed requests are retried by {@link AdaptiveRetryPolicy}, with jittered backoff and per-host circuit breaking.
      *
      * @param urlString the target URL.
      * @param body the request body.
@@ -3490,38 +3462,50 @@ public final class Utils {
      * */
     public static String sendPostRequest(String urlString, String body) {
         try {
-            HttpRequest request = new HttpRequest(HttpMethod.POST, urlString).setBody(body);
-            Mono<Response<String>> response =
-                stringResponse(HTTP_PIPELINE.send(request)
-                    .flatMap(response1 -> {
-                        int code = response1.getStatusCode();
-                        if (code == 200 || code == 400 || code == 404) {
-                            return Mono.just(response1);
-                        } else {
-                            return Mono.error(new HttpResponseException(response1));
-                        }
-                    })
-                    .retryWhen(Retry
-                        .fixedDelay(5, Duration.ofSeconds(30))
-                        .filter(t -> {
-                            boolean retry = false;
-                            if (t instanceof TimeoutException) {
-                                retry = true;
-                            }
-
-                            if (retry) {
-                                LOGGER.info("retry POST request to {}", urlString);
-                            }
-                            return retry;
-                        })));
-            Response<String> ret = response.block();
-            return ret == null ? null : ret.getValue();
+            return sendPostRequestAsync(urlString, body).block();
         } catch (Exception e) {
             LOGGER.logThrowableAsError(e);
             return null;
         }
     }
 
+    /**
+     * Sends a POST request to target URL without blocking the caller.
+     * <p>
+     * Same retry logic as {@link #sendPostRequest(String, String)}. Errors are signalled rather than logged.
+     *
+     * @param urlString the target URL.
+     * @param body the request body.
+     * @return Content of the HTTP response, empty if there is none.
+     */
+    public static Mono<String> sendPostRequestAsync(String urlString, String body) {
+        return sendAsync(new HttpRequest(HttpMethod.POST, urlString).setBody(body));
+    }
+
+    /**
+     * Sends a POST request to target URL, for callers not using Reactor.
+     *
+     * @param urlString the target URL.
+     * @param body the request body.
+     * @return future of the content of the HTTP response.
+     */
+    public static CompletableFuture<String> sendPostRequestFuture(String urlString, String body) {
+        return sendPostRequestAsync(urlString, body).toFuture();
+    }
+
+    private static Mono<String> sendAsync(HttpRequest request) {
+        return stringResponse(Mono.defer(() -> HTTP_PIPELINE.send(request))
+            .flatMap(response1 -> {
+                int code = response1.getStatusCode();
+                if (code == 200 || code == 400 || code == 404) {
+                    return Mono.just(response1);
+                } else {
+                    return Mono.error(new HttpResponseException(response1));
+                }
+            }))
+            .map(Response::getValue);
+    }
+
     private static Mono<Response<String>> stringResponse(Mono<HttpResponse> responseMono) {
         return responseMono.flatMap(response -> response.getBodyAsString()
                 .map(str -> new SimpleResponse<>(response.getRequest(), response.getStatusCode(), response.getHeaders(), str)));
@@ -3530,7 +3514,8 @@ public final class Utils {
     private static final HttpPipeline HTTP_PIPELINE = new HttpPipelineBuilder()
         .policies(
             new HttpLoggingPolicy(new HttpLogOptions().setLogLevel(HttpLogDetailLevel.BASIC)),
-            new RetryPolicy("Retry-After", ChronoUnit.SECONDS))
+            // apps answer 503 while they warm up, which must not trip the breaker of the ARM client's shared policy
+            AdaptiveRetryPolicy.forProbes())
         .build();
 
     /**
@@ -0,0 +1,91 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ArtifactCacheTest {
+
+    private static final int SEGMENT = 64 * 1024;
+
+    @TempDir
+    Path folder;
+
+    @Test
+    public void concurrentFetchesOfOneUrlShareTheDownload() throws Exception {
+        byte[] content = SegmentedDownloaderTest.content(8 * SEGMENT);
+        int fetches = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(fetches);
+        try (RangeServer server = new RangeServer(content)) {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<File>> results = new ArrayList<>();
+            for (int i = 0; i < fetches; i++) {
+                // separate instances on one folder, like separate runs on one agent
+                ArtifactCache cache = new ArtifactCache(folder.toFile(), Long.MAX_VALUE, 0, new SegmentedDownloader(4, SEGMENT, 1));
+                Callable<File> fetch = () -> {
+                    start.await();
+                    return cache.fetch(server.url());
+                };
+                results.add(executor.submit(fetch));
+            }
+            start.countDown();
+
+            File first = results.get(0).get();
+            for (Future<File> result : results) {
+                assertEquals(first, result.get());
+            }
+            assertArrayEquals(content, Files.readAllBytes(first.toPath()));
+            // one fetch downloads, the others revalidate the stored copy
+            assertEquals(1, server.fullGets());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        File[] leftovers = new File(folder.toFile(), "blobs").listFiles((dir, name) -> name.endsWith(".partial")
+            || name.endsWith(".state") || name.endsWith(".tmp"));
+        assertEquals(0, leftovers == null ? 0 : leftovers.length);
+    }
+
+    @Test
+    public void indexesASeekableCopyOfTheArchive() throws Exception {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        for (int i = 0; i < 40; i++) {
+            files.put("project/module/File" + i + ".java", SegmentedDownloaderTest.content(64 * 1024 + i));
+        }
+        byte[] archive = Files.readAllBytes(TarGzIndexTest.writeArchive(folder.resolve("source.tar.gz").toFile(), files).toPath());
+        ArtifactCache cache = new ArtifactCache(folder.resolve("cache").toFile(), Long.MAX_VALUE);
+        try (RangeServer server = new RangeServer(archive)) {
+            TarGzIndex index = cache.fetchIndex(server.url());
+
+            assertEquals(cache.fetch(server.url()).getPath() + ".seekable", index.archive().getPath());
+            assertTrue(index.checkpointCount() > 1, "checkpoints: " + index.checkpointCount());
+            File target = folder.resolve("extracted").toFile();
+            assertEquals(40, index.extract("project/", target));
+            assertArrayEquals(files.get("project/module/File7.java"),
+                Files.readAllBytes(new File(target, "project/module/File7.java").toPath()));
+
+            // a second fetch loads the same copy and index instead of recompressing
+            long lastModified = index.archive().lastModified();
+            assertEquals(lastModified, cache.fetchIndex(server.url()).archive().lastModified());
+        }
+    }
+}
@@ -0,0 +1,96 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DnsPropagationWaiterTest {
+
+    private static final String NAME = "ssl.contoso.com";
+    private static final String TARGET = "gateway.azuremicroservices.io";
+
+    private static final Map<String, String> RECORDS = Collections.singletonMap(NAME, TARGET);
+
+    @Test
+    public void propagatesOnceEveryServerServesTheTarget() throws Exception {
+        try (StubDnsServer current = new StubDnsServer().withRecord(NAME, TARGET);
+             StubDnsServer lagging = new StubDnsServer().withRecord(NAME, "Gateway.AzureMicroservices.io.").withholdFor(3)) {
+            boolean propagated = waiter(Duration.ofSeconds(10))
+                .awaitServers(Arrays.asList(current.address(), lagging.address()), RECORDS);
+
+            assertTrue(propagated);
+            assertEquals(1, current.queries());
+            assertEquals(4, lagging.queries());
+        }
+    }
+
+    @Test
+    public void givesUpWhenAServerNeverServesTheRecord() throws Exception {
+        try (StubDnsServer current = new StubDnsServer().withRecord(NAME, TARGET);
+             StubDnsServer stale = new StubDnsServer()) {
+            boolean propagated = waiter(Duration.ofMillis(500))
+                .awaitServers(Arrays.asList(current.address(), stale.address()), RECORDS);
+
+            assertFalse(propagated);
+            assertTrue(stale.queries() > 1, "queries: " + stale.queries());
+        }
+    }
+
+    @Test
+    public void doesNotCountAnotherTargetAsPropagated() throws Exception {
+        try (StubDnsServer server = new StubDnsServer().withRecord(NAME, "old-gateway.azuremicroservices.io")) {
+            boolean propagated = waiter(Duration.ofMillis(500))
+                .awaitServers(Collections.singletonList(server.address()), RECORDS);
+
+            assertFalse(propagated);
+        }
+    }
+
+    @Test
+    public void parsesCompressedNames() {
+        byte[] query = DnsPropagationWaiter.query(0x1234, NAME);
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        message.write(query, 0, 2);
+        StubDnsServer.writeShort(message, 0x8400);
+        StubDnsServer.writeShort(message, 1);
+        StubDnsServer.writeShort(message, 1);
+        StubDnsServer.writeShort(message, 0);
+        StubDnsServer.writeShort(message, 0);
+        message.write(query, 12, query.length - 12);
+        // owner points at the question, the target ends with a pointer to "contoso.com" inside it
+        StubDnsServer.writeShort(message, 0xC00C);
+        StubDnsServer.writeShort(message, 5);
+        StubDnsServer.writeShort(message, 1);
+        StubDnsServer.writeShort(message, 0);
+        StubDnsServer.writeShort(message, 60);
+        StubDnsServer.writeShort(message, 10);
+        message.write(7);
+        message.write("gateway".getBytes(StandardCharsets.US_ASCII), 0, 7);
+        StubDnsServer.writeShort(message, 0xC000 | 16);
+        byte[] response = message.toByteArray();
+
+        assertEquals("gateway.contoso.com", DnsPropagationWaiter.parseCname(response, response.length, NAME));
+        assertNull(DnsPropagationWaiter.parseCname(response, response.length, "www.contoso.com"));
+
+        // a name error carries no record
+        response[3] = (byte) (response[3] | 3);
+        assertNull(DnsPropagationWaiter.parseCname(response, response.length, NAME));
+    }
+
+    private static DnsPropagationWaiter waiter(Duration timeout) {
+        return new DnsPropagationWaiter(timeout, Duration.ofMillis(50), Duration.ofMillis(500), 0);
+    }
+}
@@ -0,0 +1,75 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ModuleSourceBundlerTest {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    public void bundlesTheTargetModuleWithItsSiblingDependencies() throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("project/pom.xml", bytes("<project><modules><module>common</module><module>gateway</module>"
+            + "<module>statistics</module></modules></project>"));
+        files.put("project/README.md", bytes("readme"));
+        files.put("project/common/pom.xml", bytes("<project><artifactId>common</artifactId></project>"));
+        files.put("project/common/Common.java", bytes("class Common {}"));
+        files.put("project/gateway/pom.xml", bytes("<project><artifactId>gateway</artifactId><dependencies>"
+            + "<dependency><artifactId>common</artifactId></dependency></dependencies></project>"));
+        files.put("project/gateway/Gateway.java", bytes("class Gateway {}"));
+        files.put("project/statistics/pom.xml", bytes("<project><artifactId>statistics</artifactId></project>"));
+        files.put("project/statistics/Statistics.java", bytes("class Statistics {}"));
+        File source = TarGzIndexTest.writeArchive(folder.resolve("source.tar.gz").toFile(), files);
+        File seekable = folder.resolve("seekable.tar.gz").toFile();
+        TarGzIndex.recompress(source, seekable, 1024);
+
+        File bundle = ModuleSourceBundler.bundle(TarGzIndex.load(seekable), Collections.singleton("gateway"),
+            folder.resolve("bundles").toFile()).get("gateway");
+
+        Map<String, String> bundled = read(bundle);
+        assertEquals(6, bundled.size(), bundled.keySet().toString());
+        assertEquals("class Gateway {}", bundled.get("project/gateway/Gateway.java"));
+        assertEquals("class Common {}", bundled.get("project/common/Common.java"));
+        assertEquals("readme", bundled.get("project/README.md"));
+        String parentPom = bundled.get("project/pom.xml");
+        assertTrue(parentPom.contains("<module>gateway</module>") && parentPom.contains("<module>common</module>"));
+        assertTrue(!parentPom.contains("statistics"), parentPom);
+    }
+
+    private static Map<String, String> read(File archive) throws IOException {
+        Map<String, String> files = new LinkedHashMap<>();
+        try (TarArchiveInputStream inputStream =
+                 new TarArchiveInputStream(new GzipCompressorInputStream(new FileInputStream(archive)))) {
+            TarArchiveEntry entry;
+            while ((entry = inputStream.getNextTarEntry()) != null) {
+                files.put(entry.getName(), new String(IOUtils.toByteArray(inputStream), StandardCharsets.UTF_8));
+            }
+        }
+        return files;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,118 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local HTTP server for a single artifact, with optional byte range support.
+ */
+final class RangeServer implements AutoCloseable {
+
+    static final String ETAG = "\"artifact-1\"";
+
+    private final byte[] content;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<Long> rangeStarts = new CopyOnWriteArrayList<>();
+    private final AtomicInteger fullGets = new AtomicInteger();
+    private volatile boolean acceptRanges = true;
+    private volatile long failRangesFrom = Long.MAX_VALUE;
+
+    RangeServer(byte[] content) throws IOException {
+        this.content = content;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/artifact.tar.gz", this::handle);
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    URL url() throws IOException {
+        return new URL("http", "127.0.0.1", server.getAddress().getPort(), "/artifact.tar.gz");
+    }
+
+    /** Serves the artifact as a plain stream, without advertising or honouring ranges. */
+    RangeServer withoutRanges() {
+        this.acceptRanges = false;
+        return this;
+    }
+
+    /** Answers range requests starting at or after the offset with 503. */
+    RangeServer failRangesFrom(long offset) {
+        this.failRangesFrom = offset;
+        return this;
+    }
+
+    /** @return the first byte of every range request served or refused */
+    List<Long> rangeStarts() {
+        return rangeStarts;
+    }
+
+    /** @return the number of GETs answered with the whole artifact */
+    int fullGets() {
+        return fullGets.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            exchange.getResponseHeaders().set("ETag", ETAG);
+            if (acceptRanges) {
+                exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            }
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Content-Length", Long.toString(content.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range == null || !acceptRanges) {
+                fullGets.incrementAndGet();
+                send(exchange, 200, 0, content.length);
+                return;
+            }
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            long first = Long.parseLong(bounds[0]);
+            long last = bounds.length > 1 ? Long.parseLong(bounds[1]) : content.length - 1;
+            rangeStarts.add(first);
+            if (first >= failRangesFrom) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Range", String.format("bytes %d-%d/%d", first, last, content.length));
+            send(exchange, 206, (int) first, (int) (last - first + 1));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void send(HttpExchange exchange, int code, int offset, int length) throws IOException {
+        exchange.sendResponseHeaders(code, length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(content, offset, length);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,79 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SegmentedDownloaderTest {
+
+    private static final int SEGMENT = 64 * 1024;
+
+    @TempDir
+    Path folder;
+
+    @Test
+    public void downloadsInRangesWhenAccepted() throws IOException {
+        byte[] content = content(4 * SEGMENT);
+        File target = folder.resolve("artifact").toFile();
+        try (RangeServer server = new RangeServer(content)) {
+            new SegmentedDownloader(4, SEGMENT, 1).download(server.url(), target);
+
+            assertEquals(0, server.fullGets());
+            assertEquals(4, server.rangeStarts().size());
+        }
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertFalse(new File(target.getPath() + ".state").exists());
+    }
+
+    @Test
+    public void fallsBackToSingleStreamWithoutRanges() throws IOException {
+        byte[] content = content(4 * SEGMENT);
+        File target = folder.resolve("artifact").toFile();
+        try (RangeServer server = new RangeServer(content).withoutRanges()) {
+            new SegmentedDownloader(4, SEGMENT, 1).download(server.url(), target);
+
+            assertEquals(1, server.fullGets());
+            assertTrue(server.rangeStarts().isEmpty());
+        }
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void resumesOnlyTheSegmentsThatFailed() throws IOException {
+        byte[] content = content(4 * SEGMENT);
+        File target = folder.resolve("artifact").toFile();
+        try (RangeServer server = new RangeServer(content).failRangesFrom(2L * SEGMENT)) {
+            assertThrows(IOException.class, () -> new SegmentedDownloader(4, SEGMENT, 1).download(server.url(), target));
+        }
+        assertTrue(new File(target.getPath() + ".state").exists());
+
+        try (RangeServer server = new RangeServer(content)) {
+            new SegmentedDownloader(4, SEGMENT, 1).download(server.url(), target);
+
+            assertEquals(0, server.fullGets());
+            assertTrue(server.rangeStarts().stream().allMatch(start -> start >= 2L * SEGMENT), server.rangeStarts().toString());
+            assertEquals(2, server.rangeStarts().size());
+        }
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    static byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+}
@@ -0,0 +1,124 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local authoritative name server for CNAME records over UDP, which can withhold its records for a number of queries.
+ */
+final class StubDnsServer implements AutoCloseable {
+
+    private final DatagramSocket socket;
+    private final Thread thread;
+    private final Map<String, String> records = new ConcurrentHashMap<>();
+    private final AtomicInteger queries = new AtomicInteger();
+    private volatile int withheldQueries;
+
+    StubDnsServer() throws IOException {
+        this.socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        this.thread = new Thread(this::serve, "stub-dns");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    InetSocketAddress address() {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort());
+    }
+
+    /** Serves a CNAME record, its owner name compressed as a pointer to the question. */
+    StubDnsServer withRecord(String name, String canonicalName) {
+        records.put(name.toLowerCase(Locale.ROOT), canonicalName);
+        return this;
+    }
+
+    /** Answers the first queries without any record, as a server the zone update has not reached yet. */
+    StubDnsServer withholdFor(int queries) {
+        this.withheldQueries = queries;
+        return this;
+    }
+
+    /** @return the number of queries received */
+    int queries() {
+        return queries.get();
+    }
+
+    private void serve() {
+        byte[] buffer = new byte[512];
+        while (!socket.isClosed()) {
+            try {
+                DatagramPacket query = new DatagramPacket(buffer, buffer.length);
+                socket.receive(query);
+                byte[] response = respond(buffer, query.getLength(), queries.incrementAndGet() > withheldQueries);
+                socket.send(new DatagramPacket(response, response.length, query.getSocketAddress()));
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private byte[] respond(byte[] query, int length, boolean answer) {
+        StringBuilder name = new StringBuilder();
+        for (int offset = 12; query[offset] != 0; offset += (query[offset] & 0xFF) + 1) {
+            if (name.length() > 0) {
+                name.append('.');
+            }
+            name.append(new String(query, offset + 1, query[offset] & 0xFF, StandardCharsets.US_ASCII));
+        }
+        String canonicalName = answer ? records.get(name.toString().toLowerCase(Locale.ROOT)) : null;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(query, 0, 2);
+        // response, authoritative answer
+        writeShort(out, 0x8400);
+        writeShort(out, 1);
+        writeShort(out, canonicalName == null ? 0 : 1);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        out.write(query, 12, length - 12);
+        if (canonicalName != null) {
+            byte[] data = encodeName(canonicalName);
+            writeShort(out, 0xC00C);
+            writeShort(out, 5);
+            writeShort(out, 1);
+            writeShort(out, 0);
+            writeShort(out, 60);
+            writeShort(out, data.length);
+            out.write(data, 0, data.length);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] encodeName(String name) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String label : name.split("\\.")) {
+            byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+            out.write(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        out.write(0);
+        return out.toByteArray();
+    }
+
+    static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        socket.close();
+        thread.join(1000);
+    }
+}
@@ -0,0 +1,120 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.appplatform.samples;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TarGzIndexTest {
+
+    private static final long MEMBER_SIZE = 64 * 1024;
+
+    @TempDir
+    Path folder;
+
+    @Test
+    public void readsEntriesOfARecompressedArchive() throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        Random random = new Random(300);
+        for (int i = 0; i < 300; i++) {
+            byte[] content = new byte[random.nextInt(16 * 1024)];
+            random.nextBytes(content);
+            files.put(String.format("project/module-%d/src/File%03d.java", i % 3, i), content);
+        }
+        File source = writeArchive(folder.resolve("source.tar.gz").toFile(), files);
+        File seekable = folder.resolve("seekable.tar.gz").toFile();
+        TarGzIndex.recompress(source, seekable, MEMBER_SIZE);
+
+        assertEquals(1, TarGzIndex.build(source, MEMBER_SIZE).checkpointCount());
+        TarGzIndex index = TarGzIndex.build(seekable, MEMBER_SIZE);
+        assertTrue(index.checkpointCount() > 30, "checkpoints: " + index.checkpointCount());
+
+        assertEquals(300, index.entries("project/").size());
+        for (TarGzIndex.Entry entry : index.entries("project/")) {
+            try (InputStream inputStream = index.open(entry)) {
+                assertArrayEquals(files.get(entry.name()), IOUtils.toByteArray(inputStream), entry.name());
+            }
+        }
+
+        File target = folder.resolve("extracted").toFile();
+        assertEquals(100, index.extract("project/module-1/", target));
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            File extracted = new File(target, file.getKey());
+            assertEquals(file.getKey().startsWith("project/module-1/"), extracted.isFile(), file.getKey());
+            if (extracted.isFile()) {
+                assertArrayEquals(file.getValue(), Files.readAllBytes(extracted.toPath()), file.getKey());
+            }
+        }
+    }
+
+    @Test
+    public void loadsTheSavedIndex() throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("project/pom.xml", "<project/>".getBytes());
+        files.put("project/module/pom.xml", "<project></project>".getBytes());
+        File archive = writeArchive(folder.resolve("source.tar.gz").toFile(), files);
+
+        TarGzIndex built = TarGzIndex.load(archive);
+        assertTrue(new File(archive.getPath() + ".idx").isFile());
+        TarGzIndex loaded = TarGzIndex.load(archive);
+
+        assertEquals(built.entries("").size(), loaded.entries("").size());
+        TarGzIndex.Entry pom = loaded.entries("project/module/").get(0);
+        try (InputStream inputStream = loaded.open(pom)) {
+            assertArrayEquals(files.get("project/module/pom.xml"), IOUtils.toByteArray(inputStream));
+        }
+    }
+
+    @Test
+    public void failsWhenTheArchiveDoesNotMatchTheIndex() throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        for (int i = 0; i < 8; i++) {
+            files.put("project/File" + i + ".java", SegmentedDownloaderTest.content(32 * 1024 + i));
+        }
+        File archive = writeArchive(folder.resolve("source.tar.gz").toFile(), files);
+        TarGzIndex index = TarGzIndex.build(archive, MEMBER_SIZE);
+        TarGzIndex.Entry last = index.entries("project/File7").get(0);
+
+        // replaced by a shorter archive, as with a stale index
+        writeArchive(archive, Collections.singletonMap("project/File0.java", files.get("project/File0.java")));
+
+        assertThrows(IOException.class, () -> index.open(last).close());
+        assertThrows(IOException.class, () -> index.read(Collections.singletonList(last), (entry, data) -> { }));
+    }
+
+    static File writeArchive(File file, Map<String, byte[]> files) throws IOException {
+        try (TarArchiveOutputStream outputStream =
+                 new TarArchiveOutputStream(new GzipCompressorOutputStream(new FileOutputStream(file)))) {
+            outputStream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+                TarArchiveEntry tarEntry = new TarArchiveEntry(entry.getKey());
+                tarEntry.setSize(entry.getValue().length);
+                outputStream.putArchiveEntry(tarEntry);
+                outputStream.write(entry.getValue());
+                outputStream.closeArchiveEntry();
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,68 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.samples;
+
+import com.azure.core.http.HttpHeaders;
+import com.azure.core.http.HttpMethod;
+import com.azure.core.http.HttpPipeline;
+import com.azure.core.http.HttpPipelineBuilder;
+import com.azure.core.http.HttpRequest;
+import com.azure.core.http.HttpResponse;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class AdaptiveRetryPolicyTest {
+
+    private static final String URL = "http://127.0.0.1/probe";
+
+    @Test
+    public void retriesIdempotentRequestsOnServerErrors() {
+        assertEquals(3, sends(HttpMethod.GET, () -> Mono.just(status(500, null))));
+        assertEquals(3, sends(HttpMethod.PUT, () -> Mono.error(new IOException("connection reset"))));
+    }
+
+    @Test
+    public void doesNotRetryAPostTheServerMayHaveActedOn() {
+        assertEquals(1, sends(HttpMethod.POST, () -> Mono.just(status(500, null))));
+        assertEquals(1, sends(HttpMethod.POST, () -> Mono.just(status(503, null))));
+        assertEquals(1, sends(HttpMethod.POST, () -> Mono.error(new IOException("connection reset"))));
+    }
+
+    @Test
+    public void retriesAPostThatNeverReachedTheServerOrWasAskedToRetry() {
+        assertEquals(3, sends(HttpMethod.POST, () -> Mono.error(new ConnectException("connection refused"))));
+        assertEquals(3, sends(HttpMethod.POST, () -> Mono.just(status(503, "0"))));
+        assertEquals(3, sends(HttpMethod.POST, () -> Mono.just(status(429, "0"))));
+    }
+
+    private static int sends(HttpMethod method, Supplier<Mono<HttpResponse>> outcome) {
+        AtomicInteger sends = new AtomicInteger();
+        HttpPipeline pipeline = new HttpPipelineBuilder()
+            .httpClient(request -> {
+                sends.incrementAndGet();
+                return outcome.get();
+            })
+            .policies(new AdaptiveRetryPolicy(2, Duration.ofMillis(1), Duration.ofMillis(2)).withoutCircuitBreaker())
+            .build();
+        // the last outcome, failed or not, is what the caller gets; only the number of sends matters here
+        pipeline.send(new HttpRequest(method, URL)).onErrorResume(e -> Mono.empty()).block();
+        return sends.get();
+    }
+
+    private static HttpResponse status(int statusCode, String retryAfter) {
+        HttpHeaders headers = new HttpHeaders();
+        if (retryAfter != null) {
+            headers.set("Retry-After", retryAfter);
+        }
+        return new BufferedResponse(new HttpRequest(HttpMethod.GET, URL), statusCode, headers, new byte[0]);
+    }
+}
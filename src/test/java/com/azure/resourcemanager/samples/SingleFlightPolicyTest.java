@@ -0,0 +1,101 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package com.azure.resourcemanager.samples;
+
+import com.azure.core.http.HttpClient;
+import com.azure.core.http.HttpHeaders;
+import com.azure.core.http.HttpMethod;
+import com.azure.core.http.HttpPipeline;
+import com.azure.core.http.HttpPipelineBuilder;
+import com.azure.core.http.HttpRequest;
+import com.azure.core.http.HttpResponse;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SingleFlightPolicyTest {
+
+    private static final String APP = "https://management.azure.com/subscriptions/s/resourceGroups/rg/providers/"
+        + "Microsoft.AppPlatform/Spring/service/apps/gateway";
+
+    private final List<Sinks.One<HttpResponse>> pendingGets = new CopyOnWriteArrayList<>();
+
+    private final HttpClient client = request -> {
+        if (request.getHttpMethod() == HttpMethod.GET) {
+            Sinks.One<HttpResponse> response = Sinks.one();
+            pendingGets.add(response);
+            return response.asMono();
+        }
+        return Mono.just(new BufferedResponse(request, 200, new HttpHeaders(), new byte[0]));
+    };
+
+    private final HttpPipeline pipeline = new HttpPipelineBuilder()
+        .httpClient(client)
+        .policies(new SingleFlightPolicy())
+        .build();
+
+    @Test
+    public void concurrentGetsShareOneCall() {
+        SingleFlightPolicy policy = new SingleFlightPolicy();
+        HttpPipeline pipeline = new HttpPipelineBuilder().httpClient(client).policies(policy).build();
+
+        CompletableFuture<String> first = get(pipeline, APP);
+        CompletableFuture<String> second = get(pipeline, APP);
+        complete(0, "state");
+
+        assertEquals(1, pendingGets.size());
+        assertEquals("state", first.join());
+        assertEquals("state", second.join());
+        assertEquals(1, policy.saved());
+    }
+
+    @Test
+    public void getAfterAWriteDoesNotJoinAnEarlierCall() {
+        CompletableFuture<String> before = get(pipeline, APP);
+        pipeline.send(new HttpRequest(HttpMethod.PATCH, APP)).block();
+        CompletableFuture<String> after = get(pipeline, APP);
+
+        assertEquals(2, pendingGets.size());
+        complete(0, "old");
+        complete(1, "new");
+        assertEquals("old", before.join());
+        assertEquals("new", after.join());
+    }
+
+    @Test
+    public void getAfterAWriteToAChildDoesNotJoinAnEarlierList() {
+        String apps = APP.substring(0, APP.lastIndexOf('/'));
+        CompletableFuture<String> before = get(pipeline, apps);
+        pipeline.send(new HttpRequest(HttpMethod.DELETE, APP)).block();
+        CompletableFuture<String> after = get(pipeline, apps);
+        // an unrelated write leaves the new call open to joiners
+        pipeline.send(new HttpRequest(HttpMethod.PUT, APP.replace("/rg/", "/other/"))).block();
+        CompletableFuture<String> joined = get(pipeline, apps);
+
+        assertEquals(2, pendingGets.size());
+        complete(0, "old");
+        complete(1, "new");
+        assertEquals("old", before.join());
+        assertEquals("new", after.join());
+        assertEquals("new", joined.join());
+    }
+
+    private static CompletableFuture<String> get(HttpPipeline pipeline, String url) {
+        return pipeline.send(new HttpRequest(HttpMethod.GET, url))
+            .flatMap(HttpResponse::getBodyAsString)
+            .toFuture();
+    }
+
+    private void complete(int call, String body) {
+        pendingGets.get(call).tryEmitValue(new BufferedResponse(new HttpRequest(HttpMethod.GET, APP), 200,
+            new HttpHeaders(), body.getBytes(StandardCharsets.UTF_8)));
+    }
+}